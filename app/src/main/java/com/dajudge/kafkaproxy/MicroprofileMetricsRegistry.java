@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+class MicroprofileMetricsRegistry implements MetricsRegistry {
+    private final MetricRegistry registry;
+
+    MicroprofileMetricsRegistry(final MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void gauge(
+            final String name,
+            final String description,
+            final Map<String, String> tags,
+            final Supplier<Number> value
+    ) {
+        final Metadata metadata = Metadata.builder()
+                .withName(name)
+                .withDescription(description)
+                .withType(MetricType.GAUGE)
+                .build();
+        final Gauge<Number> gauge = value::get;
+        registry.register(metadata, gauge, tags.entrySet().stream()
+                .map(it -> new Tag(it.getKey(), it.getValue()))
+                .toArray(Tag[]::new));
+    }
+}
@@ -21,19 +21,27 @@ package com.dajudge.kafkaproxy;
 import com.dajudge.kafkaproxy.config.RealEnvironment;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 
 import static com.dajudge.kafkaproxy.KafkaProxyApplication.create;
 import static com.dajudge.proxybase.certs.Filesystem.DEFAULT_FILESYSTEM;
 
 @ApplicationScoped
 public class Startup {
+    @Inject
+    MetricRegistry metricRegistry;
     private KafkaProxyApplication application;
 
     void onStart(@Observes StartupEvent ev) {
-        application = create(new RealEnvironment(), System::currentTimeMillis, DEFAULT_FILESYSTEM);
+        application = create(
+                new RealEnvironment(),
+                DEFAULT_FILESYSTEM,
+                new MicroprofileMetricsRegistry(metricRegistry)
+        );
     }
 
     void onStop(@Observes ShutdownEvent ev) {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dajudge.kafkaproxy.BrokerMapper.UNKNOWN_NODE_ID;
+import static java.lang.Integer.parseInt;
+import static java.lang.Integer.parseUnsignedInt;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Append-only record of the broker mappings learned at runtime, one "<node id> <host>:<port> <proxy port>" line
+// per mapping. Appends are written and synced in the background, mappings learned at about the same time
+// share a single fsync. On startup the journal is rewritten with the mappings that were recovered, so it only
+// grows by the brokers learned since.
+final class BrokerJournal implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerJournal.class);
+    private static final long CLOSE_TIMEOUT_SECS = 5;
+    private final Path path;
+    private FileChannel channel;
+    private final List<BrokerMapFile.Entry> entries;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    private BrokerJournal(final Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        entries = replay();
+        executor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("kafkaproxy-journal", true));
+    }
+
+    static BrokerJournal open(final String location) {
+        try {
+            return new BrokerJournal(Paths.get(location));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Failed to open broker journal " + location, e);
+        }
+    }
+
+    List<BrokerMapFile.Entry> getEntries() {
+        return entries;
+    }
+
+    void append(final BrokerMapping mapping, final int nodeId) {
+        pending.add(line(nodeId, mapping.getBroker(), mapping.getProxy().getPort()));
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (final RejectedExecutionException e) {
+                LOG.warn("Broker journal {} is closed, not recording {}", path, mapping);
+            }
+        }
+    }
+
+    // Replaces the journal with the given entries. Must be called before the first append.
+    void compact(final List<BrokerMapFile.Entry> recovered) {
+        final StringBuilder lines = new StringBuilder();
+        recovered.forEach(it -> lines.append(line(
+                it.getNodeId().orElse(UNKNOWN_NODE_ID),
+                it.getBroker().orElseThrow(IllegalArgumentException::new),
+                it.getProxyPort()
+        )));
+        final Path compacted = path.resolveSibling(path.getFileName() + ".compacted");
+        try {
+            try (FileChannel out = FileChannel.open(compacted, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                write(out, lines);
+            }
+            Files.move(compacted, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(path, WRITE);
+            channel.position(channel.size());
+            LOG.info("Compacted broker journal {} to {} mappings", path, recovered.size());
+        } catch (final IOException e) {
+            LOG.warn("Failed to compact broker journal {}", path, e);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        final StringBuilder lines = new StringBuilder();
+        for (String line = pending.poll(); line != null; line = pending.poll()) {
+            lines.append(line);
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+        try {
+            write(channel, lines);
+        } catch (final IOException e) {
+            LOG.warn("Failed to write to broker journal {}", path, e);
+        }
+    }
+
+    private static void write(final FileChannel target, final CharSequence lines) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        target.force(false);
+    }
+
+    private static String line(final int nodeId, final Endpoint broker, final int proxyPort) {
+        return nodeId + " " + broker.getHost() + ":" + broker.getPort() + " " + proxyPort + "\n";
+    }
+
+    private List<BrokerMapFile.Entry> replay() throws IOException {
+        final byte[] content = Files.readAllBytes(path);
+        // A crash might have left a partially written last line behind
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        channel.truncate(end);
+        channel.position(end);
+        final List<BrokerMapFile.Entry> replayed = new ArrayList<>();
+        for (final String line : new String(content, 0, end, UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                replayed.add(parse(line));
+            }
+        }
+        LOG.info("Replayed {} broker mappings from {}", replayed.size(), path);
+        return replayed;
+    }
+
+    private BrokerMapFile.Entry parse(final String line) {
+        final String[] parts = line.split(" ");
+        final int separator = parts.length == 3 ? parts[1].lastIndexOf(':') : -1;
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid line in broker journal " + path + ": " + line);
+        }
+        final int nodeId = parseInt(parts[0]);
+        return new BrokerMapFile.Entry(
+                nodeId < 0 ? null : nodeId,
+                new Endpoint(parts[1].substring(0, separator), parseUnsignedInt(parts[1].substring(separator + 1))),
+                parseUnsignedInt(parts[2])
+        );
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECS, SECONDS)) {
+                LOG.warn("Timed out flushing broker journal {}", path);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close broker journal {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.kafkaproxy.protocol.rewrite.BrokerResolver;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+
+// Hands out proxy endpoints for brokers and binds their listeners in the background
+final class BrokerListeners implements BrokerResolver {
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerListeners.class);
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    private final ConcurrentMap<EndpointKey, BrokerMapping> activeProxies = new ConcurrentHashMap<>();
+    private final Set<EndpointKey> boundProxies = ConcurrentHashMap.newKeySet();
+    private final BrokerResolver brokerMapper;
+    private final ScheduledExecutorService listenerExecutor;
+    private final ProxyFactory proxyFactory;
+    private final long initialRetryDelayMillis;
+    private final long maxRetryDelayMillis;
+
+    BrokerListeners(
+            final BrokerResolver brokerMapper,
+            final ScheduledExecutorService listenerExecutor,
+            final Function<BrokerResolver, ProxyFactory> proxyFactory
+    ) {
+        this(brokerMapper, listenerExecutor, proxyFactory, INITIAL_RETRY_DELAY_MILLIS, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    BrokerListeners(
+            final BrokerResolver brokerMapper,
+            final ScheduledExecutorService listenerExecutor,
+            final Function<BrokerResolver, ProxyFactory> proxyFactory,
+            final long initialRetryDelayMillis,
+            final long maxRetryDelayMillis
+    ) {
+        this.brokerMapper = brokerMapper;
+        this.listenerExecutor = listenerExecutor;
+        this.proxyFactory = proxyFactory.apply(this);
+        this.initialRetryDelayMillis = initialRetryDelayMillis;
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+    }
+
+    @Override
+    public BrokerMapping resolve(final int nodeId, final Endpoint brokerEndpoint) {
+        final BrokerMapping activeProxy = activeProxies.get(EndpointKey.of(brokerEndpoint));
+        return activeProxy == null ? provision(nodeId, brokerEndpoint) : activeProxy;
+    }
+
+    void bindAll(final List<BrokerMapping> mappings) {
+        if (mappings.isEmpty()) {
+            return;
+        }
+        mappings.forEach(it -> activeProxies.put(EndpointKey.of(it.getBroker()), it));
+        final int threads = Math.min(mappings.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                threads,
+                new DefaultThreadFactory("kafkaproxy-prebind", true)
+        );
+        try {
+            final List<Future<?>> binds = mappings.stream()
+                    .map(it -> executor.submit(() -> bind(it, initialRetryDelayMillis)))
+                    .collect(toList());
+            binds.forEach(BrokerListeners::await);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    boolean isBound(final Endpoint brokerEndpoint) {
+        return boundProxies.contains(EndpointKey.of(brokerEndpoint));
+    }
+
+    void awaitPending() {
+        await(listenerExecutor.submit(() -> {
+            // Listeners are bound in order, so all previously requested listeners are bound now
+        }));
+    }
+
+    // The proxy port is handed out right away, clients connecting before the listener is bound
+    // get their connection refused and retry.
+    private BrokerMapping provision(final int nodeId, final Endpoint brokerEndpoint) {
+        final BrokerMapping mapping = brokerMapper.resolve(nodeId, brokerEndpoint);
+        if (activeProxies.putIfAbsent(EndpointKey.of(brokerEndpoint), mapping) == null) {
+            listenerExecutor.execute(() -> bind(mapping, initialRetryDelayMillis));
+        }
+        return mapping;
+    }
+
+    // The proxy endpoint has already been handed out to clients and is cached in rewritten
+    // responses, so the bind is retried until it succeeds instead of provisioning a new one.
+    private void bind(final BrokerMapping mapping, final long retryDelayMillis) {
+        try {
+            proxyFactory.create(mapping);
+            boundProxies.add(EndpointKey.of(mapping.getBroker()));
+        } catch (final Exception e) {
+            LOG.error(
+                    "Failed to initialize proxy {} for broker {}, retrying in {}ms",
+                    mapping.getProxy(),
+                    mapping.getBroker(),
+                    retryDelayMillis,
+                    e
+            );
+            final long nextRetryDelayMillis = Math.min(retryDelayMillis * 2, maxRetryDelayMillis);
+            listenerExecutor.schedule(() -> bind(mapping, nextRetryDelayMillis), retryDelayMillis, MILLISECONDS);
+        }
+    }
+
+    private static void await(final Future<?> future) {
+        try {
+            future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the proxy listeners", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Failed to wait for the proxy listeners", e);
+        }
+    }
+
+    // Netty reports bind errors as checked exceptions, without declaring them
+    interface ProxyFactory {
+        void create(BrokerMapping mapping) throws Exception;
+    }
+}
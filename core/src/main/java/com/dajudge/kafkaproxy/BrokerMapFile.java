@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.proxybase.certs.Filesystem;
+import com.dajudge.proxybase.config.Endpoint;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.lang.Integer.parseUnsignedInt;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+
+// Reads the static broker map, e.g.
+//
+// brokers:
+//   - nodeId: 0
+//     endpoint: kafka-0:9092
+//     proxyPort: 4100
+//   - nodeId: 1
+//     proxyPort: 4101
+final class BrokerMapFile {
+    private static final String KEY_BROKERS = "brokers";
+    private static final String KEY_NODE_ID = "nodeId";
+    private static final String KEY_ENDPOINT = "endpoint";
+    private static final String KEY_PROXY_PORT = "proxyPort";
+
+    private BrokerMapFile() {
+    }
+
+    static List<Entry> load(final Filesystem filesystem, final String location) {
+        try {
+            return parse(new String(filesystem.readFile(location), UTF_8));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Failed to read broker map " + location, e);
+        } catch (final RuntimeException e) {
+            throw new IllegalArgumentException("Invalid broker map " + location + ": " + e.getMessage(), e);
+        }
+    }
+
+    static List<Entry> parse(final String yaml) {
+        final Object document = new Yaml(new SafeConstructor()).load(yaml);
+        if (document == null) {
+            return emptyList();
+        }
+        final Object brokers = asMap(document).get(KEY_BROKERS);
+        if (brokers == null) {
+            return emptyList();
+        }
+        if (!(brokers instanceof List)) {
+            throw new IllegalArgumentException("'" + KEY_BROKERS + "' must be a list");
+        }
+        final List<Entry> entries = new ArrayList<>();
+        final Set<Integer> nodeIds = new HashSet<>();
+        final Set<EndpointKey> endpoints = new HashSet<>();
+        final Set<Integer> proxyPorts = new HashSet<>();
+        for (final Object item : (List<?>) brokers) {
+            final Entry entry = entry(asMap(item));
+            if (entry.nodeId != null && !nodeIds.add(entry.nodeId)) {
+                throw new IllegalArgumentException("Duplicate node id " + entry.nodeId);
+            }
+            if (entry.broker != null && !endpoints.add(EndpointKey.of(entry.broker))) {
+                throw new IllegalArgumentException("Duplicate endpoint " + EndpointKey.of(entry.broker));
+            }
+            if (!proxyPorts.add(entry.proxyPort)) {
+                throw new IllegalArgumentException("Duplicate proxy port " + entry.proxyPort);
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static Entry entry(final Map<?, ?> item) {
+        final Object nodeId = item.get(KEY_NODE_ID);
+        final Object endpoint = item.get(KEY_ENDPOINT);
+        final Object proxyPort = item.get(KEY_PROXY_PORT);
+        if (nodeId == null && endpoint == null) {
+            throw new IllegalArgumentException("Broker entries require a " + KEY_NODE_ID + " or an " + KEY_ENDPOINT);
+        }
+        if (!(proxyPort instanceof Integer)) {
+            throw new IllegalArgumentException("Broker entries require a numeric " + KEY_PROXY_PORT);
+        }
+        if (nodeId != null && (!(nodeId instanceof Integer) || (Integer) nodeId < 0)) {
+            throw new IllegalArgumentException("Invalid " + KEY_NODE_ID + ": " + nodeId);
+        }
+        return new Entry(
+                (Integer) nodeId,
+                endpoint == null ? null : endpoint(endpoint.toString()),
+                (Integer) proxyPort
+        );
+    }
+
+    private static Endpoint endpoint(final String endpoint) {
+        final int separator = endpoint.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid " + KEY_ENDPOINT + ": " + endpoint);
+        }
+        return new Endpoint(endpoint.substring(0, separator), parseUnsignedInt(endpoint.substring(separator + 1)));
+    }
+
+    private static Map<?, ?> asMap(final Object object) {
+        if (!(object instanceof Map)) {
+            throw new IllegalArgumentException("Expected a mapping but got " + object);
+        }
+        return (Map<?, ?>) object;
+    }
+
+    static final class Entry {
+        private final Integer nodeId;
+        private final Endpoint broker;
+        private final int proxyPort;
+
+        Entry(final Integer nodeId, final Endpoint broker, final int proxyPort) {
+            this.nodeId = nodeId;
+            this.broker = broker;
+            this.proxyPort = proxyPort;
+        }
+
+        Optional<Integer> getNodeId() {
+            return Optional.ofNullable(nodeId);
+        }
+
+        Optional<Endpoint> getBroker() {
+            return Optional.ofNullable(broker);
+        }
+
+        int getProxyPort() {
+            return proxyPort;
+        }
+    }
+}
@@ -19,35 +19,213 @@ package com.dajudge.kafkaproxy;
 
 import com.dajudge.kafkaproxy.config.BrokerConfigSource;
 import com.dajudge.proxybase.config.Endpoint;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
 
 public class BrokerMapper {
-    private final Map<String, BrokerMapping> allMappings = new HashMap<>();
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerMapper.class);
+    public static final int UNKNOWN_NODE_ID = -1;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+    private final ConcurrentMap<EndpointKey, BrokerMapping> allMappings = new ConcurrentHashMap<>();
     private final String proxyHostname;
     private final List<Endpoint> bootstrapBrokers;
-    private int nextBrokerPort;
+    private final AtomicInteger nextBrokerPort;
+    private final PortMapping portMapping;
+    private final int basePort;
+    private final int firstDerivedPort;
+    private final int derivedPorts;
+    private final List<EndpointKey> bootstrapKeys;
+    private final Set<Integer> derivedPortsInUse = ConcurrentHashMap.newKeySet();
+    // Ports of the broker map and the journal are never handed out in discovery order
+    private final BitSet reservedPorts = new BitSet();
+    private final IntObjectMap<Integer> nodePorts = new IntObjectHashMap<>();
+    private final Set<Integer> claimedNodeIds = ConcurrentHashMap.newKeySet();
+    private final List<BrokerMapping> initialMappings = new ArrayList<>();
+    private final List<Endpoint> mappedBrokers = new ArrayList<>();
+    private final List<BrokerMapFile.Entry> recoveredEntries = new ArrayList<>();
+    private final ObjIntConsumer<BrokerMapping> newMappingListener;
 
     public BrokerMapper(final BrokerConfigSource.BrokerConfig brokerConfig) {
-        nextBrokerPort = brokerConfig.getProxyBasePort();
+        this(brokerConfig, emptyList(), emptyList(), (mapping, nodeId) -> {
+        });
+    }
+
+    BrokerMapper(
+            final BrokerConfigSource.BrokerConfig brokerConfig,
+            final List<BrokerMapFile.Entry> brokerMap,
+            final List<BrokerMapFile.Entry> journal,
+            final ObjIntConsumer<BrokerMapping> newMappingListener
+    ) {
+        nextBrokerPort = new AtomicInteger(brokerConfig.getProxyBasePort());
         proxyHostname = brokerConfig.getProxyHostname();
         bootstrapBrokers = brokerConfig.getBootstrapBrokers();
+        bootstrapKeys = bootstrapBrokers.stream().map(EndpointKey::of).collect(toList());
+        portMapping = brokerConfig.getPortMapping();
+        // Bootstrap brokers come first in the port range, followed by the ports derived from the broker identity
+        basePort = brokerConfig.getProxyBasePort();
+        firstDerivedPort = basePort + bootstrapBrokers.size();
+        derivedPorts = brokerConfig.getPortRangeSize() - bootstrapBrokers.size();
+        if (portMapping != PortMapping.SEQUENTIAL && derivedPorts <= 0) {
+            throw new IllegalArgumentException("The port range must be larger than the number of bootstrap brokers");
+        }
+        this.newMappingListener = newMappingListener;
+        brokerMap.forEach(entry -> {
+            reservedPorts.set(entry.getProxyPort());
+            entry.getNodeId().ifPresent(nodeId -> nodePorts.put((int) nodeId, (Integer) entry.getProxyPort()));
+            entry.getBroker().ifPresent(broker -> {
+                addInitialMapping(broker, entry.getProxyPort());
+                mappedBrokers.add(broker);
+                entry.getNodeId().ifPresent(claimedNodeIds::add);
+            });
+        });
+        journal.forEach(this::recover);
+    }
+
+    // The broker map wins over mappings learned by previous runs
+    private void recover(final BrokerMapFile.Entry entry) {
+        final Endpoint broker = entry.getBroker().orElseThrow(IllegalArgumentException::new);
+        final int port = entry.getProxyPort();
+        final int nodeId = entry.getNodeId().orElse(UNKNOWN_NODE_ID);
+        if (allMappings.containsKey(EndpointKey.of(broker))) {
+            return;
+        }
+        final Integer nodePort = nodeId < 0 ? null : nodePorts.get(nodeId);
+        final boolean claimsNode = nodePort != null && nodePort == port && claimedNodeIds.add(nodeId);
+        if (!claimsNode && reservedPorts.get(port)) {
+            LOG.warn("Not recovering mapping of broker {} to port {}, the port is taken", broker, port);
+            return;
+        }
+        reservedPorts.set(port);
+        addInitialMapping(broker, port);
+        recoveredEntries.add(entry);
+    }
+
+    private void addInitialMapping(final Endpoint broker, final int port) {
+        final BrokerMapping mapping = new BrokerMapping(broker, proxyEndpoint(port));
+        allMappings.put(EndpointKey.of(broker), mapping);
+        initialMappings.add(mapping);
+    }
+
+    public BrokerMapping getBrokerMapping(final Endpoint brokerEndpoint) {
+        return getBrokerMapping(UNKNOWN_NODE_ID, brokerEndpoint);
+    }
+
+    public BrokerMapping getBrokerMapping(final int nodeId, final Endpoint brokerEndpoint) {
+        final EndpointKey key = EndpointKey.of(brokerEndpoint);
+        final BrokerMapping mapping = allMappings.get(key);
+        if (mapping != null) {
+            return mapping;
+        }
+        // Only ever invoked once per key, so no port is skipped
+        return allMappings.computeIfAbsent(key, it -> {
+            final BrokerMapping created = new BrokerMapping(
+                    brokerEndpoint,
+                    proxyEndpoint(allocatePort(nodeId, brokerEndpoint))
+            );
+            newMappingListener.accept(created, nodeId);
+            return created;
+        });
     }
 
-    public synchronized BrokerMapping getBrokerMapping(final Endpoint brokerEndpoint) {
-        return allMappings.computeIfAbsent(keyOf(brokerEndpoint), key -> new BrokerMapping(
-                brokerEndpoint,
-                new Endpoint(proxyHostname, nextBrokerPort++)
-        ));
+    private int allocatePort(final int nodeId, final Endpoint brokerEndpoint) {
+        final Integer mappedPort = nodeId < 0 ? null : nodePorts.get(nodeId);
+        if (mappedPort != null) {
+            if (claimedNodeIds.add(nodeId)) {
+                return mappedPort;
+            }
+            LOG.warn(
+                    "Broker node {} is now seen at {}, its mapped port {} is already in use",
+                    nodeId,
+                    brokerEndpoint,
+                    mappedPort
+            );
+        }
+        if (portMapping == PortMapping.SEQUENTIAL) {
+            int port;
+            do {
+                port = nextBrokerPort.getAndIncrement();
+            } while (reservedPorts.get(port));
+            return port;
+        }
+        return derivePort(nodeId, brokerEndpoint);
+    }
+
+    // All proxy instances with the same configuration derive the same port for a broker, unless its preferred
+    // port is taken. Collisions are resolved by probing for the next free port, which depends on the order
+    // the colliding brokers were discovered in.
+    private int derivePort(final int nodeId, final Endpoint brokerEndpoint) {
+        final int bootstrapIndex = bootstrapKeys.indexOf(EndpointKey.of(brokerEndpoint));
+        if (bootstrapIndex >= 0 && !reservedPorts.get(basePort + bootstrapIndex)) {
+            return basePort + bootstrapIndex;
+        }
+        final int preferred = portMapping == PortMapping.NODE_ID && nodeId >= 0
+                ? nodeId
+                : stableHash(brokerEndpoint);
+        final int firstSlot = Math.floorMod(preferred, derivedPorts);
+        for (int i = 0; i < derivedPorts; i++) {
+            final int port = firstDerivedPort + (firstSlot + i) % derivedPorts;
+            if (!reservedPorts.get(port) && derivedPortsInUse.add(port)) {
+                if (i > 0) {
+                    LOG.warn(
+                            "Preferred port {} of broker {} is taken, using port {} instead",
+                            firstDerivedPort + firstSlot,
+                            brokerEndpoint,
+                            port
+                    );
+                }
+                return port;
+            }
+        }
+        throw new IllegalStateException("No free proxy port left for broker " + brokerEndpoint);
+    }
+
+    // FNV-1a of the endpoint, spreads similar host names like kafka-0, kafka-1, ... better than String.hashCode()
+    private static int stableHash(final Endpoint endpoint) {
+        int hash = FNV_OFFSET_BASIS;
+        final String identity = endpoint.getHost().toLowerCase(Locale.ROOT) + ":" + endpoint.getPort();
+        for (final byte b : identity.getBytes(UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private Endpoint proxyEndpoint(final int port) {
+        return new Endpoint(proxyHostname, port);
     }
 
     public List<Endpoint> getBootstrapBrokers() {
         return bootstrapBrokers;
     }
 
-    private String keyOf(final Endpoint host) {
-        return host.getHost() + host.getPort();
+    // The mappings of the broker map and the journal, which can be bound before any broker has been contacted
+    public List<BrokerMapping> getInitialMappings() {
+        return unmodifiableList(initialMappings);
+    }
+
+    public List<Endpoint> getMappedBrokers() {
+        return unmodifiableList(mappedBrokers);
+    }
+
+    // The journal entries in use, without the ones superseded by the broker map or earlier entries
+    List<BrokerMapFile.Entry> getRecoveredEntries() {
+        return unmodifiableList(recoveredEntries);
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.proxybase.config.Endpoint;
+
+import java.util.Locale;
+
+// Identifies a broker endpoint in hash based lookups
+final class EndpointKey {
+    private final String host;
+    private final int port;
+    private final int hashCode;
+
+    EndpointKey(final String host, final int port) {
+        // Host names are case-insensitive, normalized the same way as for hash based port mapping
+        this.host = host.toLowerCase(Locale.ROOT);
+        this.port = port;
+        hashCode = 31 * this.host.hashCode() + port;
+    }
+
+    static EndpointKey of(final Endpoint endpoint) {
+        return new EndpointKey(endpoint.getHost(), endpoint.getPort());
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EndpointKey)) {
+            return false;
+        }
+        final EndpointKey other = (EndpointKey) o;
+        return port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
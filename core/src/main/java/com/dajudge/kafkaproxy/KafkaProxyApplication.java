@@ -19,174 +19,304 @@ package com.dajudge.kafkaproxy;
 
 import com.dajudge.kafkaproxy.config.ApplicationConfig;
 import com.dajudge.kafkaproxy.config.BrokerConfigSource.BrokerConfig;
+import com.dajudge.kafkaproxy.config.DownstreamSslConfigSource.DownstreamSslConfig;
 import com.dajudge.kafkaproxy.config.Environment;
+import com.dajudge.kafkaproxy.config.NetworkConfigSource.NetworkConfig;
+import com.dajudge.kafkaproxy.config.ProtocolConfigSource.ProtocolConfig;
+import com.dajudge.kafkaproxy.config.UpstreamSslConfigSource.UpstreamSslConfig;
+import com.dajudge.kafkaproxy.metrics.AllocatorMetrics;
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import com.dajudge.kafkaproxy.networking.ProxyChannelFactory;
+import com.dajudge.kafkaproxy.networking.ProxyChannelFactory.ProxyChannelInitializer;
+import com.dajudge.kafkaproxy.networking.RelayHandlerFactory;
 import com.dajudge.kafkaproxy.protocol.DecodingKafkaMessageInboundHandler;
 import com.dajudge.kafkaproxy.protocol.EncodingKafkaMessageOutboundHandler;
 import com.dajudge.kafkaproxy.protocol.KafkaRequestStore;
 import com.dajudge.kafkaproxy.protocol.RewritingKafkaMessageDuplexHandler;
+import com.dajudge.kafkaproxy.protocol.StreamingKafkaResponseInboundHandler;
 import com.dajudge.kafkaproxy.protocol.rewrite.CompositeRewriter;
 import com.dajudge.kafkaproxy.protocol.rewrite.FindCoordinatorRewriter;
 import com.dajudge.kafkaproxy.protocol.rewrite.MetadataRewriter;
 import com.dajudge.kafkaproxy.protocol.rewrite.ResponseRewriter;
-import com.dajudge.proxybase.ProxyApplication;
-import com.dajudge.proxybase.ProxyChannelFactory;
-import com.dajudge.proxybase.ProxyChannelFactory.ProxyChannelInitializer;
-import com.dajudge.proxybase.RelayingChannelInboundHandler;
+import com.dajudge.kafkaproxy.protocol.rewrite.RewritePlan;
+import com.dajudge.kafkaproxy.ssl.DownstreamSslHandlerFactory;
+import com.dajudge.kafkaproxy.ssl.HandshakeExecutor;
+import com.dajudge.kafkaproxy.ssl.UpstreamSslHandlerFactory;
 import com.dajudge.proxybase.certs.Filesystem;
-import com.dajudge.proxybase.config.DownstreamSslConfig;
 import com.dajudge.proxybase.config.Endpoint;
-import com.dajudge.proxybase.config.UpstreamSslConfig;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ImmediateExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-import static com.dajudge.proxybase.DownstreamSslHandlerFactory.createDownstreamSslHandler;
-import static com.dajudge.proxybase.UpstreamSslHandlerFactory.createUpstreamSslHandler;
+import static com.dajudge.kafkaproxy.BrokerMapper.UNKNOWN_NODE_ID;
+import static com.dajudge.kafkaproxy.networking.ProxyChannelFactory.LOGGING_CONTEXT_HANDLER;
 import static java.util.Arrays.asList;
-import static java.util.Collections.synchronizedMap;
+import static java.util.Collections.emptyList;
 
-public class KafkaProxyApplication extends ProxyApplication {
+public class KafkaProxyApplication implements AutoCloseable {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaProxyApplication.class);
+    private final Optional<HandshakeExecutor> handshakeExecutor;
+    private final Optional<UpstreamSslHandlerFactory> upstreamSslHandlerFactory;
+    private final Optional<DownstreamSslHandlerFactory> downstreamSslHandlerFactory;
+    private final ScheduledExecutorService listenerExecutor;
+    private final Optional<BrokerJournal> brokerJournal;
+    private final ProxyChannelFactory channelFactory;
 
     public KafkaProxyApplication(
             final ApplicationConfig appConfig,
-            final Supplier<Long> clock,
-            final Filesystem filesystem
+            final Filesystem filesystem,
+            final MetricsRegistry metrics
     ) {
-        super(createProxyRuntime(appConfig, clock, filesystem));
+        final NetworkConfig networkConfig = appConfig.require(NetworkConfig.class);
+        handshakeExecutor = createHandshakeExecutor(appConfig, networkConfig, metrics);
+        final Executor sslTaskExecutor = handshakeExecutor.map(Executor.class::cast).orElse(ImmediateExecutor.INSTANCE);
+        upstreamSslHandlerFactory = appConfig.optional(UpstreamSslConfig.class)
+                .map(it -> new UpstreamSslHandlerFactory(it, filesystem, sslTaskExecutor, metrics));
+        downstreamSslHandlerFactory = appConfig.optional(DownstreamSslConfig.class)
+                .map(it -> new DownstreamSslHandlerFactory(it, filesystem, sslTaskExecutor, metrics));
+        // Listeners for newly discovered brokers are bound in the background, away from the I/O threads
+        listenerExecutor = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("kafkaproxy-listener", true)
+        );
+        brokerJournal = appConfig.require(BrokerConfig.class).getBrokerJournalLocation().map(BrokerJournal::open);
+        channelFactory = new ProxyChannelFactory(networkConfig, metrics);
+        try {
+            createProxyRuntime(
+                    appConfig,
+                    filesystem,
+                    brokerJournal,
+                    listenerExecutor,
+                    upstreamSslHandlerFactory,
+                    downstreamSslHandlerFactory,
+                    metrics
+            ).accept(channelFactory);
+        } catch (final RuntimeException e) {
+            // Stops the bind retries and releases the listeners bound so far
+            shutdown();
+            throw e;
+        }
         LOG.trace("Kafkaproxy init complete");
     }
 
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    private void shutdown() {
+        listenerExecutor.shutdownNow();
+        channelFactory.close();
+        brokerJournal.ifPresent(BrokerJournal::close);
+        upstreamSslHandlerFactory.ifPresent(UpstreamSslHandlerFactory::close);
+        downstreamSslHandlerFactory.ifPresent(DownstreamSslHandlerFactory::close);
+        handshakeExecutor.ifPresent(HandshakeExecutor::close);
+    }
+
+    private static Optional<HandshakeExecutor> createHandshakeExecutor(
+            final ApplicationConfig appConfig,
+            final NetworkConfig networkConfig,
+            final MetricsRegistry metrics
+    ) {
+        final boolean sslEnabled = appConfig.optional(UpstreamSslConfig.class).isPresent()
+                || appConfig.optional(DownstreamSslConfig.class).isPresent();
+        if (!sslEnabled || networkConfig.getSslHandshakeThreads() == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new HandshakeExecutor(
+                networkConfig.getSslHandshakeThreads(),
+                networkConfig.getSslHandshakeQueueSize(),
+                metrics
+        ));
+    }
+
     private static Consumer<ProxyChannelFactory> createProxyRuntime(
             final ApplicationConfig appConfig,
-            final Supplier<Long> clock,
-            final Filesystem filesystem
+            final Filesystem filesystem,
+            final Optional<BrokerJournal> brokerJournal,
+            final ScheduledExecutorService listenerExecutor,
+            final Optional<UpstreamSslHandlerFactory> upstreamSslHandlerFactory,
+            final Optional<DownstreamSslHandlerFactory> downstreamSslHandlerFactory,
+            final MetricsRegistry metrics
     ) {
+        // The proxy channels use the default allocator, which is pooled unless configured otherwise
+        AllocatorMetrics.register(metrics, ByteBufAllocator.DEFAULT);
         final BrokerConfig brokerConfig = appConfig.require(BrokerConfig.class);
-        final BrokerMapper brokerMapper = new BrokerMapper(brokerConfig);
-        final Optional<UpstreamSslConfig> upstreamSslConfig = appConfig.optional(UpstreamSslConfig.class);
-        final Optional<DownstreamSslConfig> downstreamSslConfig = appConfig.optional(DownstreamSslConfig.class);
+        final BrokerMapper brokerMapper = new BrokerMapper(
+                brokerConfig,
+                brokerConfig.getBrokerMapLocation()
+                        .map(location -> BrokerMapFile.load(filesystem, location))
+                        .orElse(emptyList()),
+                brokerJournal.map(BrokerJournal::getEntries).orElse(emptyList()),
+                (mapping, nodeId) -> brokerJournal.ifPresent(it -> it.append(mapping, nodeId))
+        );
+        brokerJournal.ifPresent(it -> it.compact(brokerMapper.getRecoveredEntries()));
+        final ProtocolConfig protocolConfig = appConfig.require(ProtocolConfig.class);
+        final RelayHandlerFactory relayHandlerFactory = new RelayHandlerFactory(
+                appConfig.require(NetworkConfig.class),
+                metrics
+        );
         return channelFactory -> {
-            final Map<Endpoint, BrokerMapping> activeProxies = synchronizedMap(new HashMap<>());
-            final Function<Endpoint, BrokerMapping> brokerResolver = new Function<Endpoint, BrokerMapping>() {
-                @Override
-                public BrokerMapping apply(final Endpoint brokerEndpoint) {
-                    return activeProxies.computeIfAbsent(brokerEndpoint, createProxy(
+            final BrokerListeners brokerListeners = new BrokerListeners(
+                    brokerMapper::getBrokerMapping,
+                    listenerExecutor,
+                    resolver -> createProxy(
                             channelFactory,
-                            brokerMapper,
-                            this,
+                            new RewritePlan(resolver),
                             brokerConfig.getBindAddress(),
-                            upstreamSslConfig,
-                            downstreamSslConfig,
-                            clock,
-                            filesystem
+                            upstreamSslHandlerFactory,
+                            downstreamSslHandlerFactory,
+                            protocolConfig,
+                            relayHandlerFactory
+                    )
+            );
+            // Known listeners are bound eagerly, so no client waits for them to come up and clients
+            // reconnecting after a restart find their brokers at the same ports as before.
+            brokerListeners.bindAll(brokerMapper.getInitialMappings());
+            brokerMapper.getBootstrapBrokers().forEach(it -> brokerListeners.resolve(UNKNOWN_NODE_ID, it));
+            brokerListeners.awaitPending();
+            // Mappings recovered from the journal might belong to brokers that are gone, so only the configured
+            // brokers are required to be reachable through the proxy right away.
+            final boolean allBound = Stream.concat(
+                    brokerMapper.getBootstrapBrokers().stream(),
+                    brokerMapper.getMappedBrokers().stream()
+            ).allMatch(brokerListeners::isBound);
+            if (!allBound) {
+                throw new IllegalStateException("Failed to initialize the proxies for the bootstrap brokers");
+            }
+            brokerMapper.getInitialMappings().stream()
+                    .filter(it -> !brokerListeners.isBound(it.getBroker()))
+                    .forEach(it -> LOG.warn(
+                            "Proxy {} for recovered broker {} is not bound yet, retrying in the background",
+                            it.getProxy(),
+                            it.getBroker()
                     ));
-                }
-            };
-            brokerMapper.getBootstrapBrokers().forEach(brokerResolver::apply);
         };
     }
 
-    private static Function<Endpoint, BrokerMapping> createProxy(
+    private static BrokerListeners.ProxyFactory createProxy(
             final ProxyChannelFactory channelFactory,
-            final BrokerMapper brokerMapper,
-            final Function<Endpoint, BrokerMapping> brokerResolver,
+            final RewritePlan rewritePlan,
             final String bindAddress,
-            final Optional<UpstreamSslConfig> upstreamSslConfig,
-            final Optional<DownstreamSslConfig> downstreamSslConfig,
-            final Supplier<Long> clock,
-            final Filesystem filesystem
+            final Optional<UpstreamSslHandlerFactory> upstreamSslHandlerFactory,
+            final Optional<DownstreamSslHandlerFactory> downstreamSslHandlerFactory,
+            final ProtocolConfig protocolConfig,
+            final RelayHandlerFactory relayHandlerFactory
     ) {
-        return brokerEndpoint -> {
-            final BrokerMapping mapping = brokerMapper.getBrokerMapping(brokerEndpoint);
+        return mapping -> {
+            final Endpoint brokerEndpoint = mapping.getBroker();
             final Endpoint proxyEndpoint = mapping.getProxy();
             LOG.info("Initializing proxy {} for broker {}", proxyEndpoint, brokerEndpoint);
-            final ProxyChannelInitializer initializer = (upstreamChannel, downstreamChannel) -> {
-                configureUpstream(
-                        upstreamSslConfig,
-                        upstreamChannel,
-                        downstreamChannel,
-                        clock,
-                        filesystem
-                );
-                configureDownstream(
-                        brokerEndpoint,
-                        downstreamSslConfig,
-                        upstreamChannel,
-                        downstreamChannel,
-                        brokerResolver,
-                        clock, filesystem
-                );
+            final ProxyChannelInitializer initializer = new ProxyChannelInitializer() {
+                @Override
+                public void initializeDownstream(final Channel downstreamChannel) {
+                    configureDownstreamSsl(brokerEndpoint, downstreamSslHandlerFactory, downstreamChannel);
+                }
+
+                @Override
+                public void initialize(final Channel upstreamChannel, final Channel downstreamChannel) {
+                    configureUpstream(
+                            upstreamSslHandlerFactory,
+                            upstreamChannel,
+                            downstreamChannel,
+                            relayHandlerFactory
+                    );
+                    configureDownstream(
+                            upstreamChannel,
+                            downstreamChannel,
+                            rewritePlan,
+                            protocolConfig,
+                            relayHandlerFactory
+                    );
+                }
             };
             channelFactory.createProxyChannel(
                     new Endpoint(bindAddress, proxyEndpoint.getPort()),
                     brokerEndpoint,
                     initializer
             );
-            return mapping;
         };
     }
 
     private static void configureUpstream(
-            final Optional<UpstreamSslConfig> sslConfig,
+            final Optional<UpstreamSslHandlerFactory> sslHandlerFactory,
             final Channel upstreamChannel,
             final Channel downstreamChannel,
-            final Supplier<Long> clock,
-            final Filesystem filesystem
+            final RelayHandlerFactory relayHandlerFactory
     ) {
         upstreamChannel.pipeline().addLast(new DecodingKafkaMessageInboundHandler());
         upstreamChannel.pipeline().addLast(new EncodingKafkaMessageOutboundHandler());
-        upstreamChannel.pipeline().addLast(new RelayingChannelInboundHandler("downstream", downstreamChannel));
-        sslConfig.ifPresent(it -> upstreamChannel.pipeline().addAfter(
-                LOGGING_CONTEXT_HANDLER,
-                "SSL",
-                createUpstreamSslHandler(it, clock, filesystem)
-        ));
+        upstreamChannel.pipeline().addLast(relayHandlerFactory.createRelayHandler("downstream", downstreamChannel));
+        sslHandlerFactory.ifPresent(it -> {
+            upstreamChannel.pipeline().addAfter(
+                    LOGGING_CONTEXT_HANDLER,
+                    "SSL",
+                    it.createSslHandler(upstreamChannel.alloc())
+            );
+            upstreamChannel.pipeline().addAfter("SSL", "SSL_STATISTICS", it.createHandshakeStatisticsHandler());
+        });
     }
 
-    private static void configureDownstream(
+    // Broker channels might be connected in advance, so TLS is set up separately from the rest of the pipeline
+    private static void configureDownstreamSsl(
             final Endpoint downstream,
-            final Optional<DownstreamSslConfig> sslConfig,
+            final Optional<DownstreamSslHandlerFactory> sslHandlerFactory,
+            final Channel downstreamChannel
+    ) {
+        sslHandlerFactory.ifPresent(it -> {
+            downstreamChannel.pipeline().addAfter(
+                    LOGGING_CONTEXT_HANDLER,
+                    "SSL",
+                    it.createSslHandler(downstreamChannel.alloc(), downstream)
+            );
+            downstreamChannel.pipeline().addAfter("SSL", "SSL_STATISTICS", it.createHandshakeStatisticsHandler());
+        });
+    }
+
+    private static void configureDownstream(
             final Channel upstreamChannel,
             final Channel downstreamChannel,
-            final Function<Endpoint, BrokerMapping> brokerResolver,
-            final Supplier<Long> clock,
-            final Filesystem filesystem
+            final RewritePlan rewritePlan,
+            final ProtocolConfig protocolConfig,
+            final RelayHandlerFactory relayHandlerFactory
     ) {
         final ResponseRewriter rewriter = new CompositeRewriter(asList(
-                new MetadataRewriter(brokerResolver),
-                new FindCoordinatorRewriter(brokerResolver)
+                new MetadataRewriter(rewritePlan),
+                new FindCoordinatorRewriter(rewritePlan)
         ));
-        final KafkaRequestStore kafkaRequestStore = new KafkaRequestStore(rewriter);
+        final KafkaRequestStore kafkaRequestStore = new KafkaRequestStore(
+                rewriter,
+                protocolConfig.getMaxInflightRequests()
+        );
         downstreamChannel.pipeline().addLast(new EncodingKafkaMessageOutboundHandler());
-        downstreamChannel.pipeline().addLast(new DecodingKafkaMessageInboundHandler());
+        downstreamChannel.pipeline().addLast(new StreamingKafkaResponseInboundHandler(kafkaRequestStore));
         downstreamChannel.pipeline().addLast(new RewritingKafkaMessageDuplexHandler(kafkaRequestStore));
-        downstreamChannel.pipeline().addLast(new RelayingChannelInboundHandler("upstream", upstreamChannel));
-        sslConfig.ifPresent(it -> {
-            final ChannelHandler sslHandler = createDownstreamSslHandler(it, downstream, clock, filesystem)
-                    .apply(downstreamChannel.pipeline().channel());
-            downstreamChannel.pipeline().addAfter(
-                    LOGGING_CONTEXT_HANDLER,
-                    "SSL",
-                    sslHandler
-            );
-        });
+        downstreamChannel.pipeline().addLast(relayHandlerFactory.createRelayHandler("upstream", upstreamChannel));
     }
 
     public static KafkaProxyApplication create(
             final Environment environment,
-            final Supplier<Long> clock,
             final Filesystem filesystem
     ) {
-        return new KafkaProxyApplication(new ApplicationConfig(environment), clock, filesystem);
+        return create(environment, filesystem, MetricsRegistry.NONE);
     }
+
+    public static KafkaProxyApplication create(
+            final Environment environment,
+            final Filesystem filesystem,
+            final MetricsRegistry metrics
+    ) {
+        return new KafkaProxyApplication(new ApplicationConfig(environment), filesystem, metrics);
+    }
+
 }
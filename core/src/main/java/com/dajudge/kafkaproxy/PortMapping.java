@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import java.util.Locale;
+
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.joining;
+
+// How proxy ports are assigned to brokers that are not in the broker map
+public enum PortMapping {
+    // In the order the brokers are discovered
+    SEQUENTIAL,
+    // Derived from the broker node ID, so all proxy instances agree without coordination
+    NODE_ID,
+    // Derived from a hash of the broker endpoint, so all proxy instances agree without coordination
+    HASH;
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static PortMapping parse(final String name) {
+        for (final PortMapping mapping : values()) {
+            if (mapping.getName().equals(name.toLowerCase(Locale.ROOT))) {
+                return mapping;
+            }
+        }
+        throw new IllegalArgumentException("Unknown port mapping: " + name + " (supported: " + stream(values())
+                .map(PortMapping::getName)
+                .collect(joining(", ")) + ")");
+    }
+}
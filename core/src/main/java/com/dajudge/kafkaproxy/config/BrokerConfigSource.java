@@ -18,6 +18,7 @@
 package com.dajudge.kafkaproxy.config;
 
 
+import com.dajudge.kafkaproxy.PortMapping;
 import com.dajudge.proxybase.config.Endpoint;
 
 import java.util.List;
@@ -28,6 +29,7 @@ import static java.lang.Integer.parseUnsignedInt;
 import static java.util.stream.Collectors.toList;
 
 public class BrokerConfigSource implements ConfigSource<BrokerConfigSource.BrokerConfig> {
+    private static final int DEFAULT_PORT_RANGE_SIZE = 1000;
 
     @Override
     public Class<BrokerConfig> getConfigClass() {
@@ -40,7 +42,13 @@ public class BrokerConfigSource implements ConfigSource<BrokerConfigSource.Broke
                 getBootstrapBrokers(environment),
                 environment.requiredString("KAFKAPROXY_HOSTNAME"),
                 environment.requiredInt("KAFKAPROXY_BASE_PORT"),
-                environment.requiredString("KAFKAPROXY_BIND_ADDRESS", "0.0.0.0")
+                environment.requiredString("KAFKAPROXY_BIND_ADDRESS", "0.0.0.0"),
+                environment.optionalString("KAFKAPROXY_BROKER_MAP_LOCATION").orElse(null),
+                environment.optionalString("KAFKAPROXY_BROKER_JOURNAL_LOCATION").orElse(null),
+                environment.optionalString("KAFKAPROXY_PORT_MAPPING")
+                        .map(PortMapping::parse)
+                        .orElse(PortMapping.SEQUENTIAL),
+                environment.optionalInt("KAFKAPROXY_PORT_RANGE_SIZE").orElse(DEFAULT_PORT_RANGE_SIZE)
         ));
     }
 
@@ -60,17 +68,29 @@ public class BrokerConfigSource implements ConfigSource<BrokerConfigSource.Broke
         private final String proxyHostname;
         private final int proxyBasePort;
         private final String bindAddress;
+        private final String brokerMapLocation;
+        private final String brokerJournalLocation;
+        private final PortMapping portMapping;
+        private final int portRangeSize;
 
         public BrokerConfig(
                 final List<Endpoint> bootstrapBrokers,
                 final String proxyHostname,
                 final int proxyBasePort,
-                final String bindAddress
+                final String bindAddress,
+                final String brokerMapLocation,
+                final String brokerJournalLocation,
+                final PortMapping portMapping,
+                final int portRangeSize
         ) {
             this.bootstrapBrokers = bootstrapBrokers;
             this.proxyHostname = proxyHostname;
             this.proxyBasePort = proxyBasePort;
             this.bindAddress = bindAddress;
+            this.brokerMapLocation = brokerMapLocation;
+            this.brokerJournalLocation = brokerJournalLocation;
+            this.portMapping = portMapping;
+            this.portRangeSize = portRangeSize;
         }
 
         public List<Endpoint> getBootstrapBrokers() {
@@ -88,5 +108,21 @@ public class BrokerConfigSource implements ConfigSource<BrokerConfigSource.Broke
         public String getBindAddress() {
             return bindAddress;
         }
+
+        public Optional<String> getBrokerMapLocation() {
+            return Optional.ofNullable(brokerMapLocation);
+        }
+
+        public Optional<String> getBrokerJournalLocation() {
+            return Optional.ofNullable(brokerJournalLocation);
+        }
+
+        public PortMapping getPortMapping() {
+            return portMapping;
+        }
+
+        public int getPortRangeSize() {
+            return portRangeSize;
+        }
     }
 }
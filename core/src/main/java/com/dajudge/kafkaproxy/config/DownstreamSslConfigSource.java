@@ -18,13 +18,12 @@
 package com.dajudge.kafkaproxy.config;
 
 
-import com.dajudge.proxybase.config.DownstreamSslConfig;
-
 import java.util.Optional;
 
 import static com.dajudge.kafkaproxy.config.KeyStoreConfigHelper.*;
+import static com.dajudge.kafkaproxy.config.SslEngineConfigHelper.loadSslEngineConfig;
 
-public class DownstreamSslConfigSource implements ConfigSource<DownstreamSslConfig> {
+public class DownstreamSslConfigSource implements ConfigSource<DownstreamSslConfigSource.DownstreamSslConfig> {
     private static final String KAFKA_SSL_PREFIX = PREFIX + "KAFKA_SSL_";
     private static final String ENV_KAFKA_SSL_ENABLED = KAFKA_SSL_PREFIX + "ENABLED";
     private static final String ENV_KAFKA_SSL_VERIFY_HOSTNAME = KAFKA_SSL_PREFIX + "VERIFY_HOSTNAME";
@@ -45,8 +44,44 @@ public class DownstreamSslConfigSource implements ConfigSource<DownstreamSslConf
         final DownstreamSslConfig downstreamConfig = new DownstreamSslConfig(
                 loadTrustStoreConfig(environment, KAFKA_SSL_PREFIX),
                 optionalKeyStoreConfig(environment, KAFKA_SSL_PREFIX),
-                environment.requiredBoolean(ENV_KAFKA_SSL_VERIFY_HOSTNAME, DEFAULT_KAFKA_SSL_VERIFY_HOSTNAME)
+                environment.requiredBoolean(ENV_KAFKA_SSL_VERIFY_HOSTNAME, DEFAULT_KAFKA_SSL_VERIFY_HOSTNAME),
+                loadSslEngineConfig(environment, KAFKA_SSL_PREFIX)
         );
         return Optional.of(downstreamConfig);
     }
+
+    public static class DownstreamSslConfig {
+        private final Optional<StoreConfig> trustStore;
+        private final Optional<StoreConfig> keyStore;
+        private final boolean hostnameVerificationEnabled;
+        private final SslEngineConfig engine;
+
+        public DownstreamSslConfig(
+                final Optional<StoreConfig> trustStore,
+                final Optional<StoreConfig> keyStore,
+                final boolean hostnameVerificationEnabled,
+                final SslEngineConfig engine
+        ) {
+            this.trustStore = trustStore;
+            this.keyStore = keyStore;
+            this.hostnameVerificationEnabled = hostnameVerificationEnabled;
+            this.engine = engine;
+        }
+
+        public Optional<StoreConfig> getTrustStore() {
+            return trustStore;
+        }
+
+        public Optional<StoreConfig> getKeyStore() {
+            return keyStore;
+        }
+
+        public boolean isHostnameVerificationEnabled() {
+            return hostnameVerificationEnabled;
+        }
+
+        public SslEngineConfig getEngine() {
+            return engine;
+        }
+    }
 }
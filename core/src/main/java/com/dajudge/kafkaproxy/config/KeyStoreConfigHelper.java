@@ -17,8 +17,6 @@
 
 package com.dajudge.kafkaproxy.config;
 
-import com.dajudge.proxybase.certs.KeyStoreConfig;
-
 import java.util.Optional;
 
 final class KeyStoreConfigHelper {
@@ -36,31 +34,31 @@ final class KeyStoreConfigHelper {
     private KeyStoreConfigHelper() {
     }
 
-    static KeyStoreConfig requiredKeyStoreConfig(final Environment environment, final String prefix) {
+    static StoreConfig requiredKeyStoreConfig(final Environment environment, final String prefix) {
         return loadKeyStoreConfig(environment, prefix, true).orElseThrow(IllegalStateException::new);
     }
 
-    static Optional<KeyStoreConfig> optionalKeyStoreConfig(final Environment environment, final String prefix) {
+    static Optional<StoreConfig> optionalKeyStoreConfig(final Environment environment, final String prefix) {
         return loadKeyStoreConfig(environment, prefix, false);
     }
 
-    static Optional<KeyStoreConfig> loadTrustStoreConfig(
+    static Optional<StoreConfig> loadTrustStoreConfig(
             final Environment environment,
             final String prefix
     ) {
         final String truststorePrefix = prefix + QUALIFIER_TRUSTSTORE;
-        return environment.optionalString(truststorePrefix + SUFFIX_LOCATION).map(path -> new KeyStoreConfig(
+        return environment.optionalString(truststorePrefix + SUFFIX_LOCATION).map(path -> new StoreConfig(
                 path,
                 environment.optionalString(truststorePrefix + SUFFIX_PASSWORD).orElse("").toCharArray(),
                 environment.optionalString(truststorePrefix + SUFFIX_PASSWORD_LOCATION).orElse(null),
                 null,
                 null,
                 environment.optionalString(truststorePrefix + SUFFIX_TYPE).orElse(DEFAULT_TYPE),
-                environment.optionalInt(truststorePrefix + SUFFIX_REFRESH_SECS).orElse(DEFAULT_REFRESH_SECS) * 1000
+                refreshSecs(environment, truststorePrefix + SUFFIX_REFRESH_SECS)
         ));
     }
 
-    private static Optional<KeyStoreConfig> loadKeyStoreConfig(
+    private static Optional<StoreConfig> loadKeyStoreConfig(
             final Environment environment,
             final String prefix,
             final boolean required
@@ -70,14 +68,19 @@ final class KeyStoreConfigHelper {
         if (required) {
             environment.requiredString(keystorePrefix + SUFFIX_LOCATION);
         }
-        return environment.optionalString(keystorePrefix + SUFFIX_LOCATION).map(path -> new KeyStoreConfig(
+        return environment.optionalString(keystorePrefix + SUFFIX_LOCATION).map(path -> new StoreConfig(
                 path,
                 environment.optionalString(keystorePrefix + SUFFIX_PASSWORD).orElse("").toCharArray(),
                 environment.optionalString(keystorePrefix + SUFFIX_PASSWORD_LOCATION).orElse(null),
                 environment.optionalString(keyPrefix + SUFFIX_PASSWORD).orElse("").toCharArray(),
                 environment.optionalString(keyPrefix + SUFFIX_PASSWORD_LOCATION).orElse(null),
                 environment.optionalString(keystorePrefix + SUFFIX_TYPE).orElse(DEFAULT_TYPE),
-                environment.optionalInt(keystorePrefix + SUFFIX_REFRESH_SECS).orElse(DEFAULT_REFRESH_SECS) * 1000
+                refreshSecs(environment, keystorePrefix + SUFFIX_REFRESH_SECS)
         ));
     }
+
+    // Only used for polling when file system events are not available, zero disables polling
+    private static int refreshSecs(final Environment environment, final String name) {
+        return Math.max(0, environment.optionalInt(name).orElse(DEFAULT_REFRESH_SECS));
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import com.dajudge.kafkaproxy.networking.Transport;
+import io.netty.channel.WriteBufferWaterMark;
+
+import java.util.Optional;
+
+public class NetworkConfigSource implements ConfigSource<NetworkConfigSource.NetworkConfig> {
+    private static final String ENV_TRANSPORT = PREFIX + "TRANSPORT";
+    private static final String ENV_ACCEPTOR_THREADS = PREFIX + "ACCEPTOR_THREADS";
+    private static final String ENV_ACCEPTORS_PER_PORT = PREFIX + "ACCEPTORS_PER_PORT";
+    private static final String ENV_LISTEN_BACKLOG = PREFIX + "LISTEN_BACKLOG";
+    private static final String ENV_TCP_USER_TIMEOUT_MS = PREFIX + "TCP_USER_TIMEOUT_MS";
+    private static final String ENV_WORKER_THREADS = PREFIX + "WORKER_THREADS";
+    private static final String ENV_BROKER_WORKER_THREADS = PREFIX + "BROKER_WORKER_THREADS";
+    private static final String ENV_CLIENT_WRITE_BUFFER_LOW_WATERMARK = PREFIX + "CLIENT_WRITE_BUFFER_LOW_WATERMARK";
+    private static final String ENV_CLIENT_WRITE_BUFFER_HIGH_WATERMARK = PREFIX + "CLIENT_WRITE_BUFFER_HIGH_WATERMARK";
+    private static final String ENV_KAFKA_WRITE_BUFFER_LOW_WATERMARK = PREFIX + "KAFKA_WRITE_BUFFER_LOW_WATERMARK";
+    private static final String ENV_KAFKA_WRITE_BUFFER_HIGH_WATERMARK = PREFIX + "KAFKA_WRITE_BUFFER_HIGH_WATERMARK";
+    private static final String ENV_KAFKA_CONNECTION_POOL_MIN_IDLE = PREFIX + "KAFKA_CONNECTION_POOL_MIN_IDLE";
+    private static final String ENV_KAFKA_CONNECTION_POOL_MAX_AGE_SECS = PREFIX + "KAFKA_CONNECTION_POOL_MAX_AGE_SECS";
+    private static final String ENV_FLUSH_MAX_MESSAGES = PREFIX + "FLUSH_MAX_MESSAGES";
+    private static final String ENV_FLUSH_MAX_BYTES = PREFIX + "FLUSH_MAX_BYTES";
+    private static final String ENV_SSL_HANDSHAKE_THREADS = PREFIX + "SSL_HANDSHAKE_THREADS";
+    private static final String ENV_SSL_HANDSHAKE_QUEUE_SIZE = PREFIX + "SSL_HANDSHAKE_QUEUE_SIZE";
+    private static final int DEFAULT_ACCEPTORS_PER_PORT = 1;
+    // 0 means the system default
+    private static final int DEFAULT_LISTEN_BACKLOG = 0;
+    // 0 means the system default
+    private static final int DEFAULT_TCP_USER_TIMEOUT_MS = 0;
+    // 0 means that broker connections share the worker threads of the client connections
+    private static final int DEFAULT_BROKER_WORKER_THREADS = 0;
+    private static final int DEFAULT_WRITE_BUFFER_LOW_WATERMARK = 32 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_HIGH_WATERMARK = 64 * 1024;
+    // 0 disables pooling
+    private static final int DEFAULT_KAFKA_CONNECTION_POOL_MIN_IDLE = 0;
+    private static final int DEFAULT_KAFKA_CONNECTION_POOL_MAX_AGE_SECS = 300;
+    private static final int DEFAULT_FLUSH_MAX_MESSAGES = 64;
+    private static final int DEFAULT_FLUSH_MAX_BYTES = 256 * 1024;
+    private static final int DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE = 1024;
+
+    @Override
+    public Class<NetworkConfig> getConfigClass() {
+        return NetworkConfig.class;
+    }
+
+    @Override
+    public Optional<NetworkConfig> parse(final Environment environment) {
+        final int acceptorsPerPort = positiveInt(environment, ENV_ACCEPTORS_PER_PORT, DEFAULT_ACCEPTORS_PER_PORT);
+        return Optional.of(new NetworkConfig(
+                environment.optionalString(ENV_TRANSPORT).map(Transport::parse).orElse(Transport.NIO),
+                positiveInt(environment, ENV_ACCEPTOR_THREADS, acceptorsPerPort),
+                acceptorsPerPort,
+                nonNegativeInt(environment, ENV_LISTEN_BACKLOG, DEFAULT_LISTEN_BACKLOG),
+                nonNegativeInt(environment, ENV_TCP_USER_TIMEOUT_MS, DEFAULT_TCP_USER_TIMEOUT_MS),
+                positiveInt(environment, ENV_WORKER_THREADS, Runtime.getRuntime().availableProcessors()),
+                nonNegativeInt(environment, ENV_BROKER_WORKER_THREADS, DEFAULT_BROKER_WORKER_THREADS),
+                waterMark(environment, ENV_CLIENT_WRITE_BUFFER_LOW_WATERMARK, ENV_CLIENT_WRITE_BUFFER_HIGH_WATERMARK),
+                waterMark(environment, ENV_KAFKA_WRITE_BUFFER_LOW_WATERMARK, ENV_KAFKA_WRITE_BUFFER_HIGH_WATERMARK),
+                nonNegativeInt(environment, ENV_KAFKA_CONNECTION_POOL_MIN_IDLE, DEFAULT_KAFKA_CONNECTION_POOL_MIN_IDLE),
+                positiveInt(
+                        environment,
+                        ENV_KAFKA_CONNECTION_POOL_MAX_AGE_SECS,
+                        DEFAULT_KAFKA_CONNECTION_POOL_MAX_AGE_SECS
+                ),
+                positiveInt(environment, ENV_FLUSH_MAX_MESSAGES, DEFAULT_FLUSH_MAX_MESSAGES),
+                positiveInt(environment, ENV_FLUSH_MAX_BYTES, DEFAULT_FLUSH_MAX_BYTES),
+                // 0 runs the handshake tasks on the I/O threads
+                nonNegativeInt(environment, ENV_SSL_HANDSHAKE_THREADS, Runtime.getRuntime().availableProcessors()),
+                positiveInt(environment, ENV_SSL_HANDSHAKE_QUEUE_SIZE, DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE)
+        ));
+    }
+
+    private static WriteBufferWaterMark waterMark(
+            final Environment environment,
+            final String lowName,
+            final String highName
+    ) {
+        final int low = positiveInt(environment, lowName, DEFAULT_WRITE_BUFFER_LOW_WATERMARK);
+        final int high = positiveInt(environment, highName, DEFAULT_WRITE_BUFFER_HIGH_WATERMARK);
+        if (low > high) {
+            throw new IllegalArgumentException(lowName + " must not be greater than " + highName);
+        }
+        return new WriteBufferWaterMark(low, high);
+    }
+
+    private static int positiveInt(final Environment environment, final String name, final int defaultValue) {
+        final int value = environment.optionalInt(name).orElse(defaultValue);
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    private static int nonNegativeInt(final Environment environment, final String name, final int defaultValue) {
+        final int value = environment.optionalInt(name).orElse(defaultValue);
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return value;
+    }
+
+    public static class NetworkConfig {
+        private final Transport transport;
+        private final int acceptorThreads;
+        private final int acceptorsPerPort;
+        private final int listenBacklog;
+        private final int tcpUserTimeoutMs;
+        private final int workerThreads;
+        private final int brokerWorkerThreads;
+        private final WriteBufferWaterMark clientWriteBufferWaterMark;
+        private final WriteBufferWaterMark kafkaWriteBufferWaterMark;
+        private final int connectionPoolMinIdle;
+        private final int connectionPoolMaxAgeSecs;
+        private final int flushMaxMessages;
+        private final int flushMaxBytes;
+        private final int sslHandshakeThreads;
+        private final int sslHandshakeQueueSize;
+
+        public NetworkConfig(
+                final Transport transport,
+                final int acceptorThreads,
+                final int acceptorsPerPort,
+                final int listenBacklog,
+                final int tcpUserTimeoutMs,
+                final int workerThreads,
+                final int brokerWorkerThreads,
+                final WriteBufferWaterMark clientWriteBufferWaterMark,
+                final WriteBufferWaterMark kafkaWriteBufferWaterMark,
+                final int connectionPoolMinIdle,
+                final int connectionPoolMaxAgeSecs,
+                final int flushMaxMessages,
+                final int flushMaxBytes,
+                final int sslHandshakeThreads,
+                final int sslHandshakeQueueSize
+        ) {
+            this.transport = transport;
+            this.acceptorThreads = acceptorThreads;
+            this.acceptorsPerPort = acceptorsPerPort;
+            this.listenBacklog = listenBacklog;
+            this.tcpUserTimeoutMs = tcpUserTimeoutMs;
+            this.workerThreads = workerThreads;
+            this.brokerWorkerThreads = brokerWorkerThreads;
+            this.clientWriteBufferWaterMark = clientWriteBufferWaterMark;
+            this.kafkaWriteBufferWaterMark = kafkaWriteBufferWaterMark;
+            this.connectionPoolMinIdle = connectionPoolMinIdle;
+            this.connectionPoolMaxAgeSecs = connectionPoolMaxAgeSecs;
+            this.flushMaxMessages = flushMaxMessages;
+            this.flushMaxBytes = flushMaxBytes;
+            this.sslHandshakeThreads = sslHandshakeThreads;
+            this.sslHandshakeQueueSize = sslHandshakeQueueSize;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public int getAcceptorThreads() {
+            return acceptorThreads;
+        }
+
+        public int getAcceptorsPerPort() {
+            return acceptorsPerPort;
+        }
+
+        public int getListenBacklog() {
+            return listenBacklog;
+        }
+
+        public int getTcpUserTimeoutMs() {
+            return tcpUserTimeoutMs;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public int getBrokerWorkerThreads() {
+            return brokerWorkerThreads;
+        }
+
+        public WriteBufferWaterMark getClientWriteBufferWaterMark() {
+            return clientWriteBufferWaterMark;
+        }
+
+        public WriteBufferWaterMark getKafkaWriteBufferWaterMark() {
+            return kafkaWriteBufferWaterMark;
+        }
+
+        public int getConnectionPoolMinIdle() {
+            return connectionPoolMinIdle;
+        }
+
+        public int getConnectionPoolMaxAgeSecs() {
+            return connectionPoolMaxAgeSecs;
+        }
+
+        public int getFlushMaxMessages() {
+            return flushMaxMessages;
+        }
+
+        public int getFlushMaxBytes() {
+            return flushMaxBytes;
+        }
+
+        public int getSslHandshakeThreads() {
+            return sslHandshakeThreads;
+        }
+
+        public int getSslHandshakeQueueSize() {
+            return sslHandshakeQueueSize;
+        }
+    }
+}
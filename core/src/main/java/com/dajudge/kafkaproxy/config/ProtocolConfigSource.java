@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import java.util.Optional;
+
+public class ProtocolConfigSource implements ConfigSource<ProtocolConfigSource.ProtocolConfig> {
+    private static final String ENV_MAX_INFLIGHT_REQUESTS = PREFIX + "MAX_INFLIGHT_REQUESTS";
+    private static final int DEFAULT_MAX_INFLIGHT_REQUESTS = 1024;
+
+    @Override
+    public Class<ProtocolConfig> getConfigClass() {
+        return ProtocolConfig.class;
+    }
+
+    @Override
+    public Optional<ProtocolConfig> parse(final Environment environment) {
+        final int maxInflightRequests = environment.optionalInt(ENV_MAX_INFLIGHT_REQUESTS)
+                .orElse(DEFAULT_MAX_INFLIGHT_REQUESTS);
+        if (maxInflightRequests <= 0) {
+            throw new IllegalArgumentException(ENV_MAX_INFLIGHT_REQUESTS + " must be positive");
+        }
+        return Optional.of(new ProtocolConfig(maxInflightRequests));
+    }
+
+    public static class ProtocolConfig {
+        private final int maxInflightRequests;
+
+        public ProtocolConfig(final int maxInflightRequests) {
+            this.maxInflightRequests = maxInflightRequests;
+        }
+
+        public int getMaxInflightRequests() {
+            return maxInflightRequests;
+        }
+    }
+}
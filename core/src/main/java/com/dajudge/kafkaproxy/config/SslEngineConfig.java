@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import io.netty.handler.ssl.SslProvider;
+
+import java.util.List;
+import java.util.Optional;
+
+public class SslEngineConfig {
+    private final SslProvider provider;
+    private final Optional<List<String>> protocols;
+    private final Optional<List<String>> cipherSuites;
+    private final int wrapDataSize;
+
+    public SslEngineConfig(
+            final SslProvider provider,
+            final Optional<List<String>> protocols,
+            final Optional<List<String>> cipherSuites,
+            final int wrapDataSize
+    ) {
+        this.provider = provider;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.wrapDataSize = wrapDataSize;
+    }
+
+    public SslProvider getProvider() {
+        return provider;
+    }
+
+    public Optional<List<String>> getProtocols() {
+        return protocols;
+    }
+
+    public Optional<List<String>> getCipherSuites() {
+        return cipherSuites;
+    }
+
+    public int getWrapDataSize() {
+        return wrapDataSize;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import io.netty.handler.ssl.SslProvider;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toList;
+
+final class SslEngineConfigHelper {
+    private static final String SUFFIX_PROVIDER = "PROVIDER";
+    private static final String SUFFIX_PROTOCOLS = "PROTOCOLS";
+    private static final String SUFFIX_CIPHER_SUITES = "CIPHER_SUITES";
+    private static final String SUFFIX_WRAP_DATA_SIZE = "WRAP_DATA_SIZE";
+    // The maximum TLS record size and Netty's default
+    private static final int DEFAULT_WRAP_DATA_SIZE = 16 * 1024;
+
+    private SslEngineConfigHelper() {
+    }
+
+    static SslEngineConfig loadSslEngineConfig(final Environment environment, final String prefix) {
+        final int wrapDataSize = environment.optionalInt(prefix + SUFFIX_WRAP_DATA_SIZE).orElse(DEFAULT_WRAP_DATA_SIZE);
+        if (wrapDataSize <= 0) {
+            throw new IllegalArgumentException(prefix + SUFFIX_WRAP_DATA_SIZE + " must be positive");
+        }
+        return new SslEngineConfig(
+                environment.optionalString(prefix + SUFFIX_PROVIDER)
+                        .map(it -> provider(prefix + SUFFIX_PROVIDER, it))
+                        .orElse(SslProvider.JDK),
+                list(environment, prefix + SUFFIX_PROTOCOLS),
+                list(environment, prefix + SUFFIX_CIPHER_SUITES),
+                wrapDataSize
+        );
+    }
+
+    private static SslProvider provider(final String name, final String value) {
+        final String normalized = value.trim().toUpperCase(Locale.ROOT);
+        if (SslProvider.JDK.name().equals(normalized)) {
+            return SslProvider.JDK;
+        }
+        if (SslProvider.OPENSSL.name().equals(normalized)) {
+            return SslProvider.OPENSSL;
+        }
+        throw new IllegalArgumentException(name + " must be one of JDK or OPENSSL: " + value);
+    }
+
+    private static Optional<List<String>> list(final Environment environment, final String name) {
+        return environment.optionalString(name)
+                .map(it -> stream(it.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(toList()))
+                .filter(it -> !it.isEmpty());
+    }
+}
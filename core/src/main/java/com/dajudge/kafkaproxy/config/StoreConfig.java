@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import java.util.Optional;
+
+public class StoreConfig {
+    private final String location;
+    private final char[] password;
+    private final String passwordLocation;
+    private final char[] keyPassword;
+    private final String keyPasswordLocation;
+    private final String type;
+    private final int refreshSecs;
+
+    public StoreConfig(
+            final String location,
+            final char[] password,
+            final String passwordLocation,
+            final char[] keyPassword,
+            final String keyPasswordLocation,
+            final String type,
+            final int refreshSecs
+    ) {
+        this.location = location;
+        this.password = password;
+        this.passwordLocation = passwordLocation;
+        this.keyPassword = keyPassword;
+        this.keyPasswordLocation = keyPasswordLocation;
+        this.type = type;
+        this.refreshSecs = refreshSecs;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public char[] getPassword() {
+        return password;
+    }
+
+    public Optional<String> getPasswordLocation() {
+        return Optional.ofNullable(passwordLocation);
+    }
+
+    public char[] getKeyPassword() {
+        return keyPassword;
+    }
+
+    public Optional<String> getKeyPasswordLocation() {
+        return Optional.ofNullable(keyPasswordLocation);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getRefreshSecs() {
+        return refreshSecs;
+    }
+}
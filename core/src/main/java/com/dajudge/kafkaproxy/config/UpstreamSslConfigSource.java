@@ -17,20 +17,24 @@
 
 package com.dajudge.kafkaproxy.config;
 
-import com.dajudge.proxybase.config.UpstreamSslConfig;
-
 import java.util.Optional;
 
 import static com.dajudge.kafkaproxy.config.KeyStoreConfigHelper.requiredKeyStoreConfig;
+import static com.dajudge.kafkaproxy.config.SslEngineConfigHelper.loadSslEngineConfig;
 
 
-public class UpstreamSslConfigSource implements ConfigSource<UpstreamSslConfig> {
+public class UpstreamSslConfigSource implements ConfigSource<UpstreamSslConfigSource.UpstreamSslConfig> {
     private static final String PREFIX_CLIENT_SSL = PREFIX + "CLIENT_SSL_";
     private static final String PROP_CLIENT_SSL_ENABLED = PREFIX_CLIENT_SSL + "ENABLED";
     private static final String PROP_CLIENT_SSL_AUTH_REQUIRED = PREFIX_CLIENT_SSL + "AUTH_REQUIRED";
+    private static final String PROP_CLIENT_SSL_SESSION_CACHE_SIZE = PREFIX_CLIENT_SSL + "SESSION_CACHE_SIZE";
+    private static final String PROP_CLIENT_SSL_SESSION_TIMEOUT_SECS = PREFIX_CLIENT_SSL + "SESSION_TIMEOUT_SECS";
 
     private static final boolean DEFAULT_CLIENT_SSL_ENABLED = false;
     private static final boolean DEFAULT_CLIENT_AUTH_REQUIRED = false;
+    // Same as the JDK defaults, 0 disables the respective limit
+    private static final int DEFAULT_CLIENT_SSL_SESSION_CACHE_SIZE = 20480;
+    private static final int DEFAULT_CLIENT_SSL_SESSION_TIMEOUT_SECS = 86400;
 
     @Override
     public Class<UpstreamSslConfig> getConfigClass() {
@@ -45,8 +49,71 @@ public class UpstreamSslConfigSource implements ConfigSource<UpstreamSslConfig>
         return Optional.of(new UpstreamSslConfig(
                 KeyStoreConfigHelper.loadTrustStoreConfig(environment, PREFIX_CLIENT_SSL),
                 requiredKeyStoreConfig(environment, PREFIX_CLIENT_SSL),
-                environment.requiredBoolean(PROP_CLIENT_SSL_AUTH_REQUIRED, DEFAULT_CLIENT_AUTH_REQUIRED)
+                environment.requiredBoolean(PROP_CLIENT_SSL_AUTH_REQUIRED, DEFAULT_CLIENT_AUTH_REQUIRED),
+                nonNegativeInt(environment, PROP_CLIENT_SSL_SESSION_CACHE_SIZE, DEFAULT_CLIENT_SSL_SESSION_CACHE_SIZE),
+                nonNegativeInt(
+                        environment,
+                        PROP_CLIENT_SSL_SESSION_TIMEOUT_SECS,
+                        DEFAULT_CLIENT_SSL_SESSION_TIMEOUT_SECS
+                ),
+                loadSslEngineConfig(environment, PREFIX_CLIENT_SSL)
         ));
     }
 
+    private static int nonNegativeInt(final Environment environment, final String name, final int defaultValue) {
+        final int value = environment.optionalInt(name).orElse(defaultValue);
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return value;
+    }
+
+    public static class UpstreamSslConfig {
+        private final Optional<StoreConfig> trustStore;
+        private final StoreConfig keyStore;
+        private final boolean authRequired;
+        private final int sessionCacheSize;
+        private final int sessionTimeoutSecs;
+        private final SslEngineConfig engine;
+
+        public UpstreamSslConfig(
+                final Optional<StoreConfig> trustStore,
+                final StoreConfig keyStore,
+                final boolean authRequired,
+                final int sessionCacheSize,
+                final int sessionTimeoutSecs,
+                final SslEngineConfig engine
+        ) {
+            this.trustStore = trustStore;
+            this.keyStore = keyStore;
+            this.authRequired = authRequired;
+            this.sessionCacheSize = sessionCacheSize;
+            this.sessionTimeoutSecs = sessionTimeoutSecs;
+            this.engine = engine;
+        }
+
+        public Optional<StoreConfig> getTrustStore() {
+            return trustStore;
+        }
+
+        public StoreConfig getKeyStore() {
+            return keyStore;
+        }
+
+        public boolean isAuthRequired() {
+            return authRequired;
+        }
+
+        public int getSessionCacheSize() {
+            return sessionCacheSize;
+        }
+
+        public int getSessionTimeoutSecs() {
+            return sessionTimeoutSecs;
+        }
+
+        public SslEngineConfig getEngine() {
+            return engine;
+        }
+    }
 }
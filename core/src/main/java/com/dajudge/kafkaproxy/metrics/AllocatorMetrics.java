@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.metrics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonMap;
+
+public final class AllocatorMetrics {
+    private static final String DIRECT = "direct";
+    private static final String HEAP = "heap";
+
+    private AllocatorMetrics() {
+    }
+
+    public static void register(final MetricsRegistry registry, final ByteBufAllocator alloc) {
+        if (!(alloc instanceof ByteBufAllocatorMetricProvider)) {
+            return;
+        }
+        final ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) alloc).metric();
+        registry.gauge(
+                "allocator.used.memory",
+                "Memory used by the buffer allocator in bytes",
+                singletonMap("type", DIRECT),
+                metric::usedDirectMemory
+        );
+        registry.gauge(
+                "allocator.used.memory",
+                "Memory used by the buffer allocator in bytes",
+                singletonMap("type", HEAP),
+                metric::usedHeapMemory
+        );
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            final PooledByteBufAllocatorMetric pooledMetric = (PooledByteBufAllocatorMetric) metric;
+            registerArenas(registry, DIRECT, pooledMetric.directArenas());
+            registerArenas(registry, HEAP, pooledMetric.heapArenas());
+        }
+    }
+
+    private static void registerArenas(
+            final MetricsRegistry registry,
+            final String type,
+            final List<PoolArenaMetric> arenas
+    ) {
+        for (int i = 0; i < arenas.size(); i++) {
+            final PoolArenaMetric arena = arenas.get(i);
+            final Map<String, String> tags = new HashMap<>();
+            tags.put("type", type);
+            tags.put("arena", String.valueOf(i));
+            registry.gauge(
+                    "allocator.arena.active.bytes",
+                    "Bytes currently allocated from the pool arena",
+                    tags,
+                    arena::numActiveBytes
+            );
+            registry.gauge(
+                    "allocator.arena.active.allocations",
+                    "Number of buffers currently allocated from the pool arena",
+                    tags,
+                    arena::numActiveAllocations
+            );
+            registry.gauge(
+                    "allocator.arena.huge.allocations",
+                    "Number of unpooled huge buffers currently allocated by the pool arena",
+                    tags,
+                    arena::numActiveHugeAllocations
+            );
+            registry.gauge(
+                    "allocator.arena.allocations",
+                    "Total number of buffers allocated from the pool arena",
+                    tags,
+                    arena::numAllocations
+            );
+            registry.gauge(
+                    "allocator.arena.thread.caches",
+                    "Number of thread caches backed by the pool arena",
+                    tags,
+                    arena::numThreadCaches
+            );
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Keeps idle, already connected (and TLS handshaken) connections to a broker on every event loop, so
+// accepted client connections don't have to wait for them. Each event loop has its own pool that is
+// only ever touched from that event loop, which also keeps client and broker channel co-located.
+class BrokerConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerConnectionPool.class);
+    private static final long RETRY_DELAY_SECS = 1;
+    private final Map<EventExecutor, LoopPool> pools = new IdentityHashMap<>();
+    private final String name;
+    private final Function<EventLoop, ChannelFuture> connector;
+    private final int minIdle;
+    private final long maxAgeNanos;
+
+    BrokerConnectionPool(
+            final String name,
+            final EventLoopGroup group,
+            final Function<EventLoop, ChannelFuture> connector,
+            final int minIdle,
+            final int maxAgeSecs
+    ) {
+        this.name = name;
+        this.connector = connector;
+        this.minIdle = minIdle;
+        this.maxAgeNanos = SECONDS.toNanos(maxAgeSecs);
+        for (final EventExecutor executor : group) {
+            pools.put(executor, new LoopPool((EventLoop) executor));
+        }
+        // Only start filling once all pools are known, since the map is read without synchronization
+        pools.values().forEach(pool -> pool.loop.execute(pool::start));
+    }
+
+    // Must be called from the given event loop. Returns null if no idle connection is available.
+    Channel acquire(final EventLoop loop) {
+        final LoopPool pool = pools.get(loop);
+        return pool == null ? null : pool.acquire();
+    }
+
+    // Stops pre-connecting and closes all idle connections
+    void close() {
+        pools.values().forEach(pool -> pool.loop.execute(pool::close));
+    }
+
+    private class LoopPool {
+        private final EventLoop loop;
+        private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+        private ScheduledFuture<?> expiry;
+        private boolean closed;
+        private int connecting;
+
+        LoopPool(final EventLoop loop) {
+            this.loop = loop;
+        }
+
+        void start() {
+            if (closed) {
+                return;
+            }
+            refill();
+            final long expiryPeriodNanos = Math.max(maxAgeNanos / 2, SECONDS.toNanos(1));
+            expiry = loop.scheduleAtFixedRate(this::expire, expiryPeriodNanos, expiryPeriodNanos, NANOSECONDS);
+        }
+
+        void close() {
+            closed = true;
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+            IdleConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.release();
+                connection.channel.close();
+            }
+        }
+
+        Channel acquire() {
+            final long now = System.nanoTime();
+            IdleConnection connection;
+            Channel channel = null;
+            while (channel == null && (connection = idle.pollFirst()) != null) {
+                connection.release();
+                if (connection.isUsable(now)) {
+                    channel = connection.channel;
+                } else {
+                    connection.channel.close();
+                }
+            }
+            refill();
+            return channel;
+        }
+
+        private void expire() {
+            final long now = System.nanoTime();
+            // Connections are queued in creation order, so the oldest are at the head
+            while (!idle.isEmpty() && !idle.peekFirst().isUsable(now)) {
+                final IdleConnection connection = idle.pollFirst();
+                connection.release();
+                connection.channel.close();
+            }
+            refill();
+        }
+
+        private void refill() {
+            if (closed || loop.isShuttingDown()) {
+                return;
+            }
+            while (idle.size() + connecting < minIdle) {
+                connecting++;
+                final ChannelFuture connectFuture = connector.apply(loop);
+                connectFuture.addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        whenReady(future.channel());
+                    } else {
+                        connecting--;
+                        LOG.debug("Failed to pre-connect to {}", name, future.cause());
+                        retryLater();
+                    }
+                });
+            }
+        }
+
+        private void whenReady(final Channel channel) {
+            final SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+            if (sslHandler == null) {
+                ready(channel);
+                return;
+            }
+            sslHandler.handshakeFuture().addListener(handshake -> {
+                if (handshake.isSuccess()) {
+                    ready(channel);
+                } else {
+                    connecting--;
+                    LOG.debug("Failed TLS handshake pre-connecting to {}", name, handshake.cause());
+                    channel.close();
+                    retryLater();
+                }
+            });
+        }
+
+        private void ready(final Channel channel) {
+            connecting--;
+            if (closed) {
+                channel.close();
+                return;
+            }
+            final IdleConnection connection = new IdleConnection(channel, System.nanoTime());
+            idle.addLast(connection);
+            channel.closeFuture().addListener(connection.closeListener);
+        }
+
+        private void retryLater() {
+            if (!closed && !loop.isShuttingDown()) {
+                loop.schedule(this::refill, RETRY_DELAY_SECS, SECONDS);
+            }
+        }
+
+        private class IdleConnection {
+            private final Channel channel;
+            private final long createdAt;
+            // Closed by the broker while idle
+            private final ChannelFutureListener closeListener = future -> {
+                idle.remove(this);
+                refill();
+            };
+
+            IdleConnection(final Channel channel, final long createdAt) {
+                this.channel = channel;
+                this.createdAt = createdAt;
+            }
+
+            boolean isUsable(final long now) {
+                return channel.isActive() && now - createdAt < maxAgeNanos;
+            }
+
+            void release() {
+                channel.closeFuture().removeListener(closeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class EventLoopMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private EventLoopMetrics() {
+    }
+
+    static void register(final MetricsRegistry metrics, final String groupName, final EventLoopGroup group) {
+        int index = 0;
+        for (final EventExecutor executor : group) {
+            final Map<String, String> tags = new HashMap<>();
+            tags.put("group", groupName);
+            tags.put("loop", String.valueOf(index++));
+            if (executor instanceof SingleThreadEventExecutor) {
+                final SingleThreadEventExecutor loop = (SingleThreadEventExecutor) executor;
+                metrics.gauge(
+                        "eventloop.pending.tasks",
+                        "Number of tasks waiting in the queue of the event loop",
+                        tags,
+                        loop::pendingTasks
+                );
+            }
+            if (THREADS.isThreadCpuTimeSupported()) {
+                // Event loop threads only burn CPU while processing I/O or tasks, so their CPU time is their busy time
+                final AtomicLong threadId = new AtomicLong(-1);
+                executor.execute(() -> threadId.set(Thread.currentThread().getId()));
+                metrics.gauge(
+                        "eventloop.busy.time",
+                        "CPU time consumed by the event loop thread in nanoseconds",
+                        tags,
+                        () -> threadId.get() < 0 ? 0 : Math.max(THREADS.getThreadCpuTime(threadId.get()), 0)
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.protocol.KafkaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.LENGTH_FIELD_SIZE;
+
+// Relays everything read to the peer channel, but only flushes at the end of a read burst or when
+// the configured number of messages or bytes is pending. Pipelined traffic therefore leaves in few
+// large writes (and TLS records) instead of one per Kafka frame.
+// While the channel it is installed on is not writable, reading from the relay channel is paused so
+// a slow receiver cannot make the proxy buffer unlimited amounts of data.
+public class FlushConsolidatingRelayHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger LOG = LoggerFactory.getLogger(FlushConsolidatingRelayHandler.class);
+    private final String name;
+    private final Channel relayChannel;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final RelayStatistics statistics;
+    private final ChannelFutureListener relayFailureListener;
+    private int pendingMessages;
+    private long pendingBytes;
+    private long pausedSince = -1;
+
+    public FlushConsolidatingRelayHandler(
+            final String name,
+            final Channel relayChannel,
+            final int maxMessages,
+            final int maxBytes,
+            final RelayStatistics statistics
+    ) {
+        this.name = name;
+        this.relayChannel = relayChannel;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.statistics = statistics;
+        this.relayFailureListener = future -> {
+            if (!future.isSuccess()) {
+                LOG.debug("Failed to relay message to {}, closing channel", name, future.cause());
+                future.channel().close();
+            }
+        };
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        pendingBytes += sizeOf(msg);
+        pendingMessages++;
+        if (!relayChannel.eventLoop().inEventLoop()) {
+            // Becomes a task submission to the other event loop
+            statistics.crossLoopWrite();
+        }
+        relayChannel.write(msg).addListener(relayFailureListener);
+        if (pendingMessages >= maxMessages || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) {
+        flush();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            resumeRelayChannel();
+        } else {
+            pauseRelayChannel();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) {
+        flush();
+        resumeRelayChannel();
+        ctx.fireChannelInactive();
+    }
+
+    private void pauseRelayChannel() {
+        if (pausedSince >= 0) {
+            return;
+        }
+        LOG.trace("Pausing reads from {}", name);
+        pausedSince = System.nanoTime();
+        statistics.paused();
+        relayChannel.config().setAutoRead(false);
+    }
+
+    private void resumeRelayChannel() {
+        if (pausedSince < 0) {
+            return;
+        }
+        LOG.trace("Resuming reads from {}", name);
+        statistics.resumed(System.nanoTime() - pausedSince);
+        pausedSince = -1;
+        relayChannel.config().setAutoRead(true);
+    }
+
+    private void flush() {
+        if (pendingMessages == 0) {
+            return;
+        }
+        LOG.trace("Flushing {} messages ({} bytes) to {}", pendingMessages, pendingBytes, name);
+        pendingMessages = 0;
+        pendingBytes = 0;
+        relayChannel.flush();
+    }
+
+    private static int sizeOf(final Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof KafkaMessage) {
+            return LENGTH_FIELD_SIZE + ((KafkaMessage) msg).payload().readableBytes();
+        }
+        return 0;
+    }
+}
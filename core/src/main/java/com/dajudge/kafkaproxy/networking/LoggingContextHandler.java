@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.MDC;
+
+// Sits at the head of the pipeline and puts the channel ID into the logging context for all
+// inbound events processed by the handlers behind it.
+class LoggingContextHandler extends ChannelInboundHandlerAdapter {
+    static final String CHANNEL_ID = "CHANNEL_ID";
+    private final String channelId;
+
+    LoggingContextHandler(final String channelId) {
+        this.channelId = channelId;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireChannelActive();
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireChannelInactive();
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireChannelRead(msg);
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext ctx) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireChannelReadComplete();
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireUserEventTriggered(evt);
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireChannelWritabilityChanged();
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        MDC.put(CHANNEL_ID, channelId);
+        try {
+            ctx.fireExceptionCaught(cause);
+        } finally {
+            MDC.remove(CHANNEL_ID);
+        }
+    }
+}
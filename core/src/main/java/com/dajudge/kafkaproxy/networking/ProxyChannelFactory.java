@@ -0,0 +1,279 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.config.NetworkConfigSource.NetworkConfig;
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonMap;
+import static java.util.Collections.synchronizedList;
+
+public class ProxyChannelFactory implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyChannelFactory.class);
+    public static final String LOGGING_CONTEXT_HANDLER = "LOGGING_CONTEXT_HANDLER";
+    private final Transport transport;
+    private final EventLoopGroup serverGroup;
+    private final EventLoopGroup upstreamGroup;
+    private final EventLoopGroup downstreamGroup;
+    private final int acceptorsPerPort;
+    private final int listenBacklog;
+    private final int tcpUserTimeoutMs;
+    private final WriteBufferWaterMark clientWriteBufferWaterMark;
+    private final WriteBufferWaterMark kafkaWriteBufferWaterMark;
+    private final int connectionPoolMinIdle;
+    private final int connectionPoolMaxAgeSecs;
+    private final List<Channel> serverChannels = synchronizedList(new ArrayList<>());
+
+    public ProxyChannelFactory(final NetworkConfig networkConfig, final MetricsRegistry metrics) {
+        transport = networkConfig.getTransport().resolve();
+        LOG.info("Using {} transport", transport.getName());
+        metrics.gauge("transport", "The network transport in use", singletonMap("name", transport.getName()), () -> 1);
+        if (networkConfig.getAcceptorsPerPort() > 1 && transport != Transport.EPOLL) {
+            LOG.warn("Multiple acceptors per port require the epoll transport, using a single acceptor per port");
+            acceptorsPerPort = 1;
+        } else {
+            acceptorsPerPort = networkConfig.getAcceptorsPerPort();
+        }
+        listenBacklog = networkConfig.getListenBacklog();
+        tcpUserTimeoutMs = networkConfig.getTcpUserTimeoutMs();
+        if (tcpUserTimeoutMs > 0 && transport != Transport.EPOLL) {
+            LOG.warn("The TCP user timeout requires the epoll transport, using the system default");
+        }
+        clientWriteBufferWaterMark = networkConfig.getClientWriteBufferWaterMark();
+        kafkaWriteBufferWaterMark = networkConfig.getKafkaWriteBufferWaterMark();
+        connectionPoolMaxAgeSecs = networkConfig.getConnectionPoolMaxAgeSecs();
+        serverGroup = eventLoopGroup("acceptor", networkConfig.getAcceptorThreads(), metrics);
+        upstreamGroup = eventLoopGroup("worker", networkConfig.getWorkerThreads(), metrics);
+        if (networkConfig.getBrokerWorkerThreads() > 0) {
+            LOG.info("Broker connections use separate threads, relaying will hop between event loops");
+            downstreamGroup = eventLoopGroup("broker-worker", networkConfig.getBrokerWorkerThreads(), metrics);
+        } else {
+            downstreamGroup = upstreamGroup;
+        }
+        if (networkConfig.getConnectionPoolMinIdle() > 0 && downstreamGroup != upstreamGroup) {
+            LOG.warn("Broker connection pooling requires shared worker threads, disabling it");
+            connectionPoolMinIdle = 0;
+        } else {
+            connectionPoolMinIdle = networkConfig.getConnectionPoolMinIdle();
+        }
+    }
+
+    private EventLoopGroup eventLoopGroup(final String name, final int threads, final MetricsRegistry metrics) {
+        LOG.info("Starting {} event loop group with {} threads", name, threads);
+        final EventLoopGroup group = transport.newEventLoopGroup(
+                threads,
+                new DefaultThreadFactory("kafkaproxy-" + name)
+        );
+        EventLoopMetrics.register(metrics, name, group);
+        return group;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void createProxyChannel(
+            final Endpoint bindEndpoint,
+            final Endpoint downstream,
+            final ProxyChannelInitializer initializer
+    ) {
+        final BrokerConnectionPool pool = connectionPoolMinIdle > 0
+                ? new BrokerConnectionPool(
+                        downstream.toString(),
+                        upstreamGroup,
+                        loop -> preConnectDownstream(loop, downstream, initializer),
+                        connectionPoolMinIdle,
+                        connectionPoolMaxAgeSecs
+                )
+                : null;
+        final ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(serverGroup, upstreamGroup)
+                .channel(transport.serverChannelClass())
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, clientWriteBufferWaterMark)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel upstreamChannel) {
+                        upstreamChannel.pipeline().addLast(
+                                LOGGING_CONTEXT_HANDLER,
+                                new LoggingContextHandler(upstreamChannel.id().asShortText())
+                        );
+                        final Channel pooledChannel = pool == null ? null : pool.acquire(upstreamChannel.eventLoop());
+                        if (pooledChannel == null) {
+                            connectDownstream(upstreamChannel, downstream, initializer);
+                        } else {
+                            attachDownstream(upstreamChannel, pooledChannel, initializer);
+                        }
+                    }
+                });
+        if (listenBacklog > 0) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, listenBacklog);
+        }
+        if (transport == Transport.EPOLL) {
+            // Kafka is request/response, so delayed ACKs only add latency. The kernel may fall back to them
+            // later on, which makes this a best effort.
+            bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+            // 0 keeps the system default
+            bootstrap.childOption(EpollChannelOption.TCP_USER_TIMEOUT, tcpUserTimeoutMs);
+        }
+        if (acceptorsPerPort > 1) {
+            // Each socket is registered on the next acceptor event loop and the kernel balances
+            // incoming connections across all of them.
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        final List<Channel> boundChannels = new ArrayList<>();
+        try {
+            for (int i = 0; i < acceptorsPerPort; i++) {
+                boundChannels.add(bootstrap.bind(bindEndpoint.getHost(), bindEndpoint.getPort())
+                        .syncUninterruptibly()
+                        .channel());
+            }
+        } catch (final Exception e) {
+            // Bind failures are rethrown as checked exceptions by Netty. Don't leave the port half open.
+            boundChannels.forEach(it -> it.close().syncUninterruptibly());
+            if (pool != null) {
+                pool.close();
+            }
+            throw e;
+        }
+        serverChannels.addAll(boundChannels);
+        LOG.debug(
+                "Listening on {} with {} acceptors using {} transport",
+                bindEndpoint,
+                acceptorsPerPort,
+                transport.getName()
+        );
+    }
+
+    private void connectDownstream(
+            final Channel upstreamChannel,
+            final Endpoint downstream,
+            final ProxyChannelInitializer initializer
+    ) {
+        final String channelId = upstreamChannel.id().asShortText();
+        // Nothing is read from the client before the broker connection is established
+        upstreamChannel.config().setAutoRead(false);
+        // Registering the broker connection on the event loop of the client connection keeps relaying
+        // between the two channels on a single thread.
+        final EventLoopGroup group = downstreamGroup == upstreamGroup ? upstreamChannel.eventLoop() : downstreamGroup;
+        final ChannelFuture connectFuture = downstreamBootstrap(group, new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(final Channel downstreamChannel) {
+                downstreamChannel.pipeline().addLast(LOGGING_CONTEXT_HANDLER, new LoggingContextHandler(channelId));
+                initializer.initializeDownstream(downstreamChannel);
+                initializer.initialize(upstreamChannel, downstreamChannel);
+            }
+        }).connect(downstream.getHost(), downstream.getPort());
+        link(upstreamChannel, connectFuture.channel());
+        connectFuture.addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                upstreamChannel.config().setAutoRead(true);
+            } else {
+                LOG.warn("Failed to connect to {}", downstream, future.cause());
+                upstreamChannel.close();
+            }
+        });
+    }
+
+    private ChannelFuture preConnectDownstream(
+            final EventLoop loop,
+            final Endpoint downstream,
+            final ProxyChannelInitializer initializer
+    ) {
+        return downstreamBootstrap(loop, new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(final Channel downstreamChannel) {
+                downstreamChannel.pipeline().addLast(
+                        LOGGING_CONTEXT_HANDLER,
+                        new LoggingContextHandler(downstreamChannel.id().asShortText())
+                );
+                initializer.initializeDownstream(downstreamChannel);
+            }
+        }).connect(downstream.getHost(), downstream.getPort());
+    }
+
+    private static void attachDownstream(
+            final Channel upstreamChannel,
+            final Channel downstreamChannel,
+            final ProxyChannelInitializer initializer
+    ) {
+        LOG.debug("Using pre-connected broker channel {}", downstreamChannel.id().asShortText());
+        downstreamChannel.pipeline().replace(
+                LOGGING_CONTEXT_HANDLER,
+                LOGGING_CONTEXT_HANDLER,
+                new LoggingContextHandler(upstreamChannel.id().asShortText())
+        );
+        initializer.initialize(upstreamChannel, downstreamChannel);
+        link(upstreamChannel, downstreamChannel);
+    }
+
+    private Bootstrap downstreamBootstrap(final EventLoopGroup group, final ChannelInitializer<Channel> handler) {
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(transport.channelClass())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, kafkaWriteBufferWaterMark)
+                .handler(handler);
+        if (transport == Transport.EPOLL) {
+            bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+            bootstrap.option(EpollChannelOption.TCP_USER_TIMEOUT, tcpUserTimeoutMs);
+        }
+        return bootstrap;
+    }
+
+    private static void link(final Channel upstreamChannel, final Channel downstreamChannel) {
+        upstreamChannel.closeFuture().addListener(future -> downstreamChannel.close());
+        downstreamChannel.closeFuture().addListener(future -> upstreamChannel.close());
+    }
+
+    @Override
+    public void close() {
+        synchronized (serverChannels) {
+            serverChannels.forEach(it -> it.close().syncUninterruptibly());
+            serverChannels.clear();
+        }
+        serverGroup.shutdownGracefully();
+        upstreamGroup.shutdownGracefully();
+        if (downstreamGroup != upstreamGroup) {
+            downstreamGroup.shutdownGracefully();
+        }
+    }
+
+    public interface ProxyChannelInitializer {
+        // Called when the broker channel is created, which might be long before a client connects
+        void initializeDownstream(Channel downstreamChannel);
+
+        void initialize(Channel upstreamChannel, Channel downstreamChannel);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.config.NetworkConfigSource.NetworkConfig;
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RelayHandlerFactory {
+    private final int flushMaxMessages;
+    private final int flushMaxBytes;
+    private final MetricsRegistry metrics;
+    private final Map<String, RelayStatistics> statistics = new ConcurrentHashMap<>();
+
+    public RelayHandlerFactory(final NetworkConfig networkConfig, final MetricsRegistry metrics) {
+        flushMaxMessages = networkConfig.getFlushMaxMessages();
+        flushMaxBytes = networkConfig.getFlushMaxBytes();
+        this.metrics = metrics;
+    }
+
+    public ChannelHandler createRelayHandler(final String name, final Channel relayChannel) {
+        return new FlushConsolidatingRelayHandler(
+                name,
+                relayChannel,
+                flushMaxMessages,
+                flushMaxBytes,
+                statistics.computeIfAbsent(name, it -> new RelayStatistics(it, metrics))
+        );
+    }
+}
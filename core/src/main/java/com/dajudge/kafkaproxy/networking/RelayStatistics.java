@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Collections.singletonMap;
+
+// Shared by all relay handlers relaying to the same side of the proxy connections
+class RelayStatistics {
+    // Upper bounds of the pause duration buckets in milliseconds, longer pauses are only counted in "+Inf"
+    private static final long[] PAUSE_BUCKETS_MILLIS = {1, 10, 100, 1000, 10000};
+    private final LongAdder crossLoopWrites = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+    private final LongAdder pausedNanos = new LongAdder();
+    private final LongAdder[] pauseBuckets = new LongAdder[PAUSE_BUCKETS_MILLIS.length + 1];
+
+    RelayStatistics(final String channel, final MetricsRegistry metrics) {
+        metrics.gauge(
+                "relay.cross.loop.writes",
+                "Number of messages relayed to a channel registered on a different event loop",
+                singletonMap("channel", channel),
+                crossLoopWrites::sum
+        );
+        metrics.gauge(
+                "relay.pauses",
+                "Number of times reading from a channel was paused because its peer was not writable",
+                singletonMap("channel", channel),
+                pauses::sum
+        );
+        metrics.gauge(
+                "relay.paused.time",
+                "Time reading from channels was paused because their peers were not writable in nanoseconds",
+                singletonMap("channel", channel),
+                pausedNanos::sum
+        );
+        for (int i = 0; i < pauseBuckets.length; i++) {
+            pauseBuckets[i] = new LongAdder();
+            registerPauseBucket(metrics, channel, i);
+        }
+    }
+
+    private void registerPauseBucket(final MetricsRegistry metrics, final String channel, final int bucket) {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("channel", channel);
+        tags.put("le", bucket < PAUSE_BUCKETS_MILLIS.length ? String.valueOf(PAUSE_BUCKETS_MILLIS[bucket]) : "+Inf");
+        metrics.gauge(
+                "relay.pause.duration",
+                "Number of single pauses of a connection lasting at most the given number of milliseconds",
+                tags,
+                () -> pausesUpTo(bucket)
+        );
+    }
+
+    private long pausesUpTo(final int bucket) {
+        long count = 0;
+        for (int i = 0; i <= bucket; i++) {
+            count += pauseBuckets[i].sum();
+        }
+        return count;
+    }
+
+    void crossLoopWrite() {
+        crossLoopWrites.increment();
+    }
+
+    void paused() {
+        pauses.increment();
+    }
+
+    void resumed(final long pausedNanos) {
+        this.pausedNanos.add(pausedNanos);
+        final long millis = TimeUnit.NANOSECONDS.toMillis(pausedNanos);
+        int bucket = 0;
+        while (bucket < PAUSE_BUCKETS_MILLIS.length && millis > PAUSE_BUCKETS_MILLIS[bucket]) {
+            bucket++;
+        }
+        pauseBuckets[bucket].increment();
+    }
+}
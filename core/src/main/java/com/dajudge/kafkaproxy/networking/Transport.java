@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.joining;
+
+public enum Transport {
+    NIO {
+        @Override
+        boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        Transport fallback() {
+            return this;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        Throwable unavailabilityCause() {
+            return Epoll.unavailabilityCause();
+        }
+
+        @Override
+        Transport fallback() {
+            return NIO;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(Transport.class);
+    // The io_uring transport is not part of the Netty version in use
+    private static final String IO_URING = "io_uring";
+
+    abstract boolean isAvailable();
+
+    Throwable unavailabilityCause() {
+        return null;
+    }
+
+    abstract Transport fallback();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends Channel> channelClass();
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // Returns the requested transport or the closest one that is available on this host
+    public Transport resolve() {
+        if (isAvailable()) {
+            return this;
+        }
+        final Transport fallback = fallback();
+        LOG.warn(
+                "Transport {} is not available, falling back to {}: {}",
+                getName(),
+                fallback.getName(),
+                String.valueOf(unavailabilityCause())
+        );
+        return fallback.resolve();
+    }
+
+    public static Transport parse(final String name) {
+        if (IO_URING.equals(name.toLowerCase(Locale.ROOT))) {
+            LOG.warn("Transport {} is not supported by this build, using {}", IO_URING, EPOLL.getName());
+            return EPOLL;
+        }
+        for (final Transport transport : values()) {
+            if (transport.getName().equals(name.toLowerCase(Locale.ROOT))) {
+                return transport;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transport: " + name + " (supported: " + stream(values())
+                .map(Transport::getName)
+                .collect(joining(", ")) + ")");
+    }
+}
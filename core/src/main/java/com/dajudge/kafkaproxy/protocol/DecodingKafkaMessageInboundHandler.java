@@ -17,17 +17,26 @@
 
 package com.dajudge.kafkaproxy.protocol;
 
-import com.dajudge.proxybase.AbstractChunkedMessageStreamInboundHandler;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
 
-public class DecodingKafkaMessageInboundHandler extends AbstractChunkedMessageStreamInboundHandler<KafkaMessage> {
-    @Override
-    protected void onMessageComplete(final ChannelHandlerContext ctx, final KafkaMessage msg) {
-        ctx.fireChannelRead(msg);
-    }
+import java.util.List;
+
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.LENGTH_FIELD_SIZE;
 
+public class DecodingKafkaMessageInboundHandler extends ByteToMessageDecoder {
     @Override
-    protected KafkaMessage createNewMessage() {
-        return new KafkaMessage();
+    protected void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        if (in.readableBytes() < LENGTH_FIELD_SIZE) {
+            return;
+        }
+        final int frameSize = LENGTH_FIELD_SIZE + in.getInt(in.readerIndex());
+        if (in.readableBytes() < frameSize) {
+            return;
+        }
+        // Frames are passed on as views of the received data; only the ones that actually
+        // get rewritten are turned into a KafkaMessage further down the pipeline.
+        out.add(in.readRetainedSlice(frameSize));
     }
 }
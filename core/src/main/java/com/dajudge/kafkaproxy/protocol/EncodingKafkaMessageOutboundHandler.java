@@ -29,7 +29,7 @@ public class EncodingKafkaMessageOutboundHandler extends ChannelOutboundHandlerA
             final ChannelPromise promise
     ) throws Exception {
         if (msg instanceof KafkaMessage) {
-            ctx.write(((KafkaMessage) msg).all(), promise);
+            ctx.write(((KafkaMessage) msg).all(ctx.alloc()), promise);
         } else {
             super.write(ctx, msg, promise);
         }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol;
+
+// Fixed capacity FIFO of the requests sent on a broker connection, kept in primitive arrays.
+final class InFlightRequests {
+    private final int[] correlationIds;
+    private final short[] apiKeys;
+    private final short[] apiVersions;
+    private int head;
+    private int size;
+
+    InFlightRequests(final int capacity) {
+        correlationIds = new int[capacity];
+        apiKeys = new short[capacity];
+        apiVersions = new short[capacity];
+    }
+
+    int capacity() {
+        return correlationIds.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == capacity();
+    }
+
+    void add(final short apiKey, final short apiVersion, final int correlationId) {
+        if (isFull()) {
+            throw new IllegalStateException("Capacity of " + capacity() + " in-flight requests exceeded");
+        }
+        final int tail = index(head + size);
+        correlationIds[tail] = correlationId;
+        apiKeys[tail] = apiKey;
+        apiVersions[tail] = apiVersion;
+        size++;
+    }
+
+    int headCorrelationId() {
+        return correlationIds[head];
+    }
+
+    short headApiKey() {
+        return apiKeys[head];
+    }
+
+    short headApiVersion() {
+        return apiVersions[head];
+    }
+
+    void removeHead() {
+        if (isEmpty()) {
+            throw new IllegalStateException("No requests in flight");
+        }
+        head = index(head + 1);
+        size--;
+    }
+
+    private int index(final int position) {
+        return position < capacity() ? position : position - capacity();
+    }
+}
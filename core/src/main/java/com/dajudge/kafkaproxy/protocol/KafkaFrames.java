@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+public final class KafkaFrames {
+    public static final int LENGTH_FIELD_SIZE = 4;
+    private static final int REQUEST_API_KEY_OFFSET = LENGTH_FIELD_SIZE;
+    private static final int REQUEST_API_VERSION_OFFSET = REQUEST_API_KEY_OFFSET + 2;
+    private static final int REQUEST_CORRELATION_ID_OFFSET = REQUEST_API_VERSION_OFFSET + 2;
+    private static final int RESPONSE_CORRELATION_ID_OFFSET = LENGTH_FIELD_SIZE;
+
+    private KafkaFrames() {
+    }
+
+    // All accessors read from the fixed prefix of a complete frame (including its length field)
+    // without moving the reader index, so the frame can be forwarded as-is afterwards.
+
+    public static short requestApiKey(final ByteBuf frame) {
+        return frame.getShort(frame.readerIndex() + REQUEST_API_KEY_OFFSET);
+    }
+
+    public static short requestApiVersion(final ByteBuf frame) {
+        return frame.getShort(frame.readerIndex() + REQUEST_API_VERSION_OFFSET);
+    }
+
+    public static int requestCorrelationId(final ByteBuf frame) {
+        return frame.getInt(frame.readerIndex() + REQUEST_CORRELATION_ID_OFFSET);
+    }
+
+    public static int responseCorrelationId(final ByteBuf frame) {
+        return frame.getInt(frame.readerIndex() + RESPONSE_CORRELATION_ID_OFFSET);
+    }
+}
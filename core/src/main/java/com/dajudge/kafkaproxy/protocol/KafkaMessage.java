@@ -17,83 +17,102 @@
 
 package com.dajudge.kafkaproxy.protocol;
 
-import com.dajudge.proxybase.AbstractChunkedMessage;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.Recycler;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.requests.AbstractResponse;
-import org.apache.kafka.common.requests.RequestHeader;
 import org.apache.kafka.common.requests.ResponseHeader;
 
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.function.Function;
 
-import static io.netty.buffer.Unpooled.buffer;
-import static java.util.Arrays.asList;
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.LENGTH_FIELD_SIZE;
 import static org.apache.kafka.common.requests.AbstractResponse.parseResponse;
 
-public class KafkaMessage extends AbstractChunkedMessage {
-    private static final int KAFKA_HEADER_LENGTH = 4;
-    private static final int COMPLETE_CHUNK_COUNT = 2;
+public final class KafkaMessage {
+    private static final Recycler<KafkaMessage> RECYCLER = new Recycler<KafkaMessage>() {
+        @Override
+        protected KafkaMessage newObject(final Handle<KafkaMessage> handle) {
+            return new KafkaMessage(handle);
+        }
+    };
+    private final Recycler.Handle<KafkaMessage> handle;
+    // null until encoded for messages created from a payload
+    private ByteBuf header;
+    private ByteBuf payload;
 
-    public KafkaMessage() {
-        super(KAFKA_HEADER_LENGTH);
+    private KafkaMessage(final Recycler.Handle<KafkaMessage> handle) {
+        this.handle = handle;
     }
 
-    public KafkaMessage(final ByteBuf payload) {
-        super(asList(lengthHeader(payload.readableBytes()), payload));
+    private static KafkaMessage newInstance(final ByteBuf header, final ByteBuf payload) {
+        final KafkaMessage message = RECYCLER.get();
+        message.header = header;
+        message.payload = payload;
+        return message;
     }
 
-    private static ByteBuf lengthHeader(final int payloadBytes) {
-        final ByteBuf buffer = buffer(4);
-        buffer.writeInt(payloadBytes);
-        return buffer;
+    public static KafkaMessage fromPayload(final ByteBuf payload) {
+        return newInstance(null, payload);
     }
 
-    @Override
-    protected int nextChunkSize(final List<ByteBuf> list) {
-        if (list.size() == COMPLETE_CHUNK_COUNT) {
-            return NO_MORE_CHUNKS;
-        }
-        final ByteBuf header = list.get(0);
+    public static KafkaMessage fromFrame(final ByteBuf frame) {
         try {
-            return header.readInt();
+            return newInstance(
+                    frame.readRetainedSlice(LENGTH_FIELD_SIZE),
+                    frame.readRetainedSlice(frame.readableBytes())
+            );
         } finally {
-            header.resetReaderIndex();
+            frame.release();
         }
     }
 
+    public ByteBuf payload() {
+        return payload;
+    }
+
     public int correlationId() {
-        return withPayload(ByteBuf::readInt);
+        return payload.getInt(payload.readerIndex());
     }
 
-    public RequestHeader requestHeader() {
-        return withPayload(payload -> RequestHeader.parse(payload.nioBuffer()));
+    public ResponseHeader responseHeader(final ApiKeys apiKey, final short apiVersion) {
+        return ResponseHeader.parse(payload.nioBuffer(), apiKey.responseHeaderVersion(apiVersion));
     }
 
-    public ResponseHeader responseHeader(final RequestHeader requestHeader) {
-        final short responseHeaderVersion = requestHeader.apiKey().responseHeaderVersion(requestHeader.apiVersion());
-        return withPayload(payload -> ResponseHeader.parse(payload.nioBuffer(), responseHeaderVersion));
+    public <T extends AbstractResponse> T responseBody(final ApiKeys apiKey, final short apiVersion) {
+        final ByteBuffer nioBuffer = payload.nioBuffer();
+        ResponseHeader.parse(nioBuffer, apiKey.responseHeaderVersion(apiVersion)); // Skip over header
+        // It's up to the caller to know what this message contains
+        @SuppressWarnings("unchecked") final T response = (T) parseResponse(apiKey, nioBuffer, apiVersion);
+        return response;
     }
 
-    public <T extends AbstractResponse> T responseBody(final RequestHeader requestHeader) {
-        final short apiVersion = requestHeader.apiVersion();
-        final ApiKeys apiKey = requestHeader.apiKey();
-        return withPayload(payload -> {
-            final ByteBuffer nioBuffer = payload.nioBuffer();
-            ResponseHeader.parse(nioBuffer, apiKey.responseHeaderVersion(apiVersion)); // Skip over header
-            // It's up to the caller to know what this message contains
-            @SuppressWarnings("unchecked") final T response = (T) parseResponse(apiKey, nioBuffer, apiVersion);
-            return response;
-        });
+    // Hands the buffers over to the returned buffer; the message itself must not be used afterwards.
+    // Header and payload are not copied but composed, so they go out in a single gathering write.
+    public ByteBuf all(final ByteBufAllocator alloc) {
+        final ByteBuf lengthHeader = header == null
+                ? alloc.directBuffer(LENGTH_FIELD_SIZE, LENGTH_FIELD_SIZE).writeInt(payload.readableBytes())
+                : header;
+        final CompositeByteBuf all = alloc.compositeDirectBuffer()
+                .addComponent(true, lengthHeader)
+                .addFlattenedComponents(true, payload);
+        recycle();
+        return all;
     }
 
-    private <T> T withPayload(final Function<ByteBuf, T> f) {
-        final ByteBuf payload = getChunks().get(1);
-        try {
-            return f.apply(payload);
-        } finally {
-            payload.resetReaderIndex();
+    public void release() {
+        if (header != null) {
+            header.release();
         }
+        payload.release();
+        recycle();
+    }
+
+    @SuppressWarnings("PMD.NullAssignment")
+    private void recycle() {
+        header = null;
+        payload = null;
+        handle.recycle(this);
     }
 }
@@ -18,51 +18,69 @@
 package com.dajudge.kafkaproxy.protocol;
 
 import com.dajudge.kafkaproxy.protocol.rewrite.ResponseRewriter;
-import org.apache.kafka.common.requests.RequestHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.kafka.common.protocol.ApiKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.requestApiKey;
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.requestApiVersion;
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.requestCorrelationId;
 import static java.lang.String.format;
-import static java.util.Collections.synchronizedMap;
 
 public class KafkaRequestStore {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaRequestStore.class);
-    private final Map<Integer, RequestHeader> requests = synchronizedMap(new HashMap<>());
+    // Only ever accessed from the event loop of the broker channel, so no synchronization required
+    private final InFlightRequests requests;
     private final ResponseRewriter rewriter;
 
-    public KafkaRequestStore(final ResponseRewriter rewriter) {
+    public KafkaRequestStore(final ResponseRewriter rewriter, final int maxInflightRequests) {
         this.rewriter = rewriter;
+        this.requests = new InFlightRequests(maxInflightRequests);
     }
 
-    public void add(final KafkaMessage request) {
-        final RequestHeader requestHeader = request.requestHeader();
-        if (LOG.isDebugEnabled()) {
-            LOG.trace("Adding client request: {} (inflight {}) ", requestHeader, requests.keySet());
+    // Returns false if the request would have its response rewritten, but no more requests can be tracked.
+    // Its response must then not be passed through, as it would hand out the addresses of the brokers.
+    public boolean add(final ByteBuf request) {
+        final short apiKey = requestApiKey(request);
+        // Only requests with a rewritten response are tracked, responses to all others are matched by
+        // absence.
+        if (!rewriter.appliesTo(ApiKeys.forId(apiKey))) {
+            return true;
+        }
+        if (requests.isFull()) {
+            return false;
         }
-        requests.put(requestHeader.correlationId(), requestHeader);
+        final int correlationId = requestCorrelationId(request);
+        LOG.trace("Adding client request with correlation ID {} (inflight: {})", correlationId, requests.size());
+        requests.add(apiKey, requestApiVersion(request), correlationId);
+        return true;
+    }
+
+    public int capacity() {
+        return requests.capacity();
     }
 
-    public KafkaMessage process(final KafkaMessage response) {
+    public boolean requiresRewrite(final int correlationId) {
+        // Brokers answer the requests of a connection in order, so the response to the oldest tracked
+        // request is the next one to be rewritten. Any other response belongs to an untracked request.
+        return !requests.isEmpty() && requests.headCorrelationId() == correlationId;
+    }
+
+    public KafkaMessage process(final KafkaMessage response, final ByteBufAllocator alloc) {
         // Peek at the correlation ID
         final int correlationId = response.correlationId();
-        if (LOG.isDebugEnabled()) {
-            LOG.trace(
-                    "Processing response with correlation ID {} (inflight: {})",
-                    correlationId,
-                    requests.keySet()
-            );
-        }
-        final RequestHeader requestHeader = requests.remove(correlationId);
-        if (requestHeader == null) {
+        LOG.trace("Processing response with correlation ID {} (inflight: {})", correlationId, requests.size());
+        if (!requiresRewrite(correlationId)) {
             throw new RuntimeException(format(
                     "Failed to correlate response correlation ID %d",
                     correlationId
             ));
         }
-
-        return rewriter.rewrite(requestHeader, response);
+        final ApiKeys apiKey = ApiKeys.forId(requests.headApiKey());
+        final short apiVersion = requests.headApiVersion();
+        requests.removeHead();
+        return rewriter.rewrite(apiKey, apiVersion, response, alloc);
     }
 }
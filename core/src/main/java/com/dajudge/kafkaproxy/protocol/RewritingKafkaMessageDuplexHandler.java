@@ -17,11 +17,16 @@
 
 package com.dajudge.kafkaproxy.protocol;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class RewritingKafkaMessageDuplexHandler extends ChannelDuplexHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(RewritingKafkaMessageDuplexHandler.class);
     private final KafkaRequestStore kafkaRequestStore;
 
     public RewritingKafkaMessageDuplexHandler(final KafkaRequestStore kafkaRequestStore) {
@@ -30,12 +35,27 @@ public class RewritingKafkaMessageDuplexHandler extends ChannelDuplexHandler {
 
     @Override
     public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
-        kafkaRequestStore.add((KafkaMessage) msg);
+        if (!kafkaRequestStore.add((ByteBuf) msg)) {
+            LOG.error(
+                    "More than {} requests awaiting a rewritten response in flight, closing connection",
+                    kafkaRequestStore.capacity()
+            );
+            ReferenceCountUtil.release(msg);
+            promise.setFailure(new IllegalStateException("Too many requests in flight"));
+            // Also closes the client connection
+            ctx.close();
+            return;
+        }
         ctx.write(msg, promise);
     }
 
     @Override
     public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
-        ctx.fireChannelRead(kafkaRequestStore.process((KafkaMessage) msg));
+        if (msg instanceof KafkaMessage) {
+            ctx.fireChannelRead(kafkaRequestStore.process((KafkaMessage) msg, ctx.alloc()));
+        } else {
+            // Responses that don't need rewriting are streamed through as raw chunks
+            ctx.fireChannelRead(msg);
+        }
     }
 }
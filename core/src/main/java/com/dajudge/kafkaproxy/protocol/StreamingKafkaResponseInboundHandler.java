@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.LENGTH_FIELD_SIZE;
+import static com.dajudge.kafkaproxy.protocol.KafkaFrames.responseCorrelationId;
+
+public class StreamingKafkaResponseInboundHandler extends ByteToMessageDecoder {
+    private static final int RESPONSE_PREFIX_SIZE = LENGTH_FIELD_SIZE + 4;
+    private final KafkaRequestStore kafkaRequestStore;
+    private boolean aggregating;
+    private int remainingStreamBytes;
+
+    public StreamingKafkaResponseInboundHandler(final KafkaRequestStore kafkaRequestStore) {
+        this.kafkaRequestStore = kafkaRequestStore;
+    }
+
+    @Override
+    protected void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out) {
+        if (remainingStreamBytes > 0) {
+            streamChunk(in, out);
+        } else if (in.readableBytes() >= RESPONSE_PREFIX_SIZE) {
+            final int frameSize = LENGTH_FIELD_SIZE + in.getInt(in.readerIndex());
+            if (!aggregating && !kafkaRequestStore.requiresRewrite(responseCorrelationId(in))) {
+                // Nobody needs to look at this response, so relay it without waiting for the rest of the frame
+                remainingStreamBytes = frameSize;
+                streamChunk(in, out);
+            } else if (in.readableBytes() >= frameSize) {
+                aggregating = false;
+                out.add(KafkaMessage.fromFrame(in.readRetainedSlice(frameSize)));
+            } else {
+                aggregating = true;
+            }
+        }
+    }
+
+    private void streamChunk(final ByteBuf in, final List<Object> out) {
+        final int chunkSize = Math.min(remainingStreamBytes, in.readableBytes());
+        remainingStreamBytes -= chunkSize;
+        out.add(in.readRetainedSlice(chunkSize));
+    }
+}
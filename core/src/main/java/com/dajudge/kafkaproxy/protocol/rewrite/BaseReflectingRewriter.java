@@ -18,62 +18,107 @@
 package com.dajudge.kafkaproxy.protocol.rewrite;
 
 import com.dajudge.kafkaproxy.protocol.KafkaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.ByteBufferAccessor;
+import org.apache.kafka.common.protocol.ObjectSerializationCache;
 import org.apache.kafka.common.requests.AbstractResponse;
-import org.apache.kafka.common.requests.RequestHeader;
 import org.apache.kafka.common.requests.ResponseHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static io.netty.buffer.Unpooled.wrappedBuffer;
-import static org.apache.kafka.common.requests.RequestUtils.serialize;
+import java.lang.reflect.Field;
 
 public abstract class BaseReflectingRewriter<T extends AbstractResponse> implements ResponseRewriter {
     private static final Logger LOG = LoggerFactory.getLogger(BaseReflectingRewriter.class);
 
     public final KafkaMessage rewrite(
-            final RequestHeader requestHeader,
-            final KafkaMessage message
+            final ApiKeys apiKey,
+            final short apiVersion,
+            final KafkaMessage message,
+            final ByteBufAllocator alloc
     ) {
-        if (!appliesTo(requestHeader)) {
-            LOG.trace("Not rewriting {} with rewriter {}", requestHeader, getClass().getSimpleName());
+        if (!appliesTo(apiKey)) {
+            LOG.trace("Not rewriting {} v{} with rewriter {}", apiKey, apiVersion, getClass().getSimpleName());
             return message;
         }
-        LOG.trace("Rewriting {} with rewriter {}", requestHeader, getClass().getSimpleName());
+        LOG.trace("Rewriting {} v{} with rewriter {}", apiKey, apiVersion, getClass().getSimpleName());
         try {
-            return rewriteMessage(requestHeader, message);
+            return rewriteMessage(apiKey, apiVersion, message, alloc);
         } finally {
             message.release();
         }
     }
 
-    private KafkaMessage rewriteMessage(final RequestHeader requestHeader, final KafkaMessage message) {
-        final ResponseHeader header = message.responseHeader(requestHeader);
+    private KafkaMessage rewriteMessage(
+            final ApiKeys apiKey,
+            final short apiVersion,
+            final KafkaMessage message,
+            final ByteBufAllocator alloc
+    ) {
+        final ResponseHeader header = message.responseHeader(apiKey, apiVersion);
         if (LOG.isTraceEnabled()) {
-            LOG.trace("Original message: {}", message.responseBody(requestHeader));
+            LOG.trace("Original message: {}", message.responseBody(apiKey, apiVersion));
         }
-        final T rewrittenMessage = rewriteMessageBody(requestHeader, message);
+        final T rewrittenMessage = rewriteMessageBody(apiKey, apiVersion, message);
         if (LOG.isTraceEnabled()) {
             LOG.trace("Rewritten message: {}", rewrittenMessage);
         }
-        return new KafkaMessage(wrappedBuffer(serialize(
+        return KafkaMessage.fromPayload(serialize(
                 header.data(),
                 header.headerVersion(),
                 rewrittenMessage.data(),
-                requestHeader.apiVersion()
-        )));
+                apiVersion,
+                alloc
+        ));
     }
 
-    private T rewriteMessageBody(final RequestHeader requestHeader, final KafkaMessage message) {
-        final T response = message.responseBody(requestHeader);
+    // Serializes straight into a pooled direct buffer instead of going through an intermediate heap buffer
+    private static ByteBuf serialize(
+            final ResponseHeaderData header,
+            final short headerVersion,
+            final ApiMessage body,
+            final short apiVersion,
+            final ByteBufAllocator alloc
+    ) {
+        final ObjectSerializationCache cache = new ObjectSerializationCache();
+        final int size = header.size(cache, headerVersion) + body.size(cache, apiVersion);
+        final ByteBuf payload = alloc.directBuffer(size, size);
+        try {
+            final ByteBufferAccessor accessor = new ByteBufferAccessor(payload.nioBuffer(0, size));
+            header.write(accessor, cache, headerVersion);
+            body.write(accessor, cache, apiVersion);
+            return payload.writerIndex(size);
+        } catch (final RuntimeException e) {
+            payload.release();
+            throw e;
+        }
+    }
+
+    private T rewriteMessageBody(final ApiKeys apiKey, final short apiVersion, final KafkaMessage message) {
+        final T response = message.responseBody(apiKey, apiVersion);
         try {
             rewrite(response);
-        } catch (final NoSuchFieldException | IllegalAccessException e) {
+        } catch (final IllegalAccessException e) {
             throw new RuntimeException("Failed to rewrite metadata response", e);
         }
         return response;
     }
 
-    protected abstract boolean appliesTo(RequestHeader requestHeader);
+    // Field handles are looked up once per rewriter class instead of once per response
+    @SuppressWarnings("PMD.AvoidAccessibilityAlteration")
+    protected static Field accessibleField(final Class<?> clazz, final String name) {
+        try {
+            final Field field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (final NoSuchFieldException e) {
+            throw new IllegalStateException("Failed to access field " + name + " of " + clazz.getName(), e);
+        }
+    }
 
-    protected abstract void rewrite(final T response) throws NoSuchFieldException, IllegalAccessException;
+    protected abstract void rewrite(final T response) throws IllegalAccessException;
 }
@@ -18,7 +18,8 @@
 package com.dajudge.kafkaproxy.protocol.rewrite;
 
 import com.dajudge.kafkaproxy.protocol.KafkaMessage;
-import org.apache.kafka.common.requests.RequestHeader;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.kafka.common.protocol.ApiKeys;
 
 import java.util.List;
 
@@ -31,13 +32,25 @@ public class CompositeRewriter implements ResponseRewriter {
         this.rewriters = unmodifiableList(rewriters);
     }
 
+    @Override
+    public boolean appliesTo(final ApiKeys apiKey) {
+        for (final ResponseRewriter rewriter : rewriters) {
+            if (rewriter.appliesTo(apiKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public KafkaMessage rewrite(
-            final RequestHeader requestHeader,
-            KafkaMessage currentMessage
+            final ApiKeys apiKey,
+            final short apiVersion,
+            KafkaMessage currentMessage,
+            final ByteBufAllocator alloc
     ) {
         for (final ResponseRewriter rewriter : rewriters) {
-            currentMessage = rewriter.rewrite(requestHeader, currentMessage);
+            currentMessage = rewriter.rewrite(apiKey, apiVersion, currentMessage, alloc);
         }
         return currentMessage;
     }
@@ -17,70 +17,68 @@
 
 package com.dajudge.kafkaproxy.protocol.rewrite;
 
-import com.dajudge.kafkaproxy.BrokerMapping;
 import com.dajudge.proxybase.config.Endpoint;
 import org.apache.kafka.common.message.FindCoordinatorResponseData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.requests.FindCoordinatorResponse;
-import org.apache.kafka.common.requests.RequestHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
-import java.util.function.Function;
 
 import static io.netty.util.internal.StringUtil.isNullOrEmpty;
 
 public class FindCoordinatorRewriter extends BaseReflectingRewriter<FindCoordinatorResponse> {
     private static final Logger LOG = LoggerFactory.getLogger(FindCoordinatorRewriter.class);
-    private final Function<Endpoint, BrokerMapping> brokerResolver;
+    private static final Field DATA_FIELD = accessibleField(FindCoordinatorResponse.class, "data");
+    private final RewritePlan rewritePlan;
 
-    public FindCoordinatorRewriter(final Function<Endpoint, BrokerMapping> brokerResolver) {
-        this.brokerResolver = brokerResolver;
+    public FindCoordinatorRewriter(final RewritePlan rewritePlan) {
+        this.rewritePlan = rewritePlan;
     }
 
     @Override
-    public boolean appliesTo(final RequestHeader requestHeader) {
-        return requestHeader.apiKey() == ApiKeys.FIND_COORDINATOR;
+    public boolean appliesTo(final ApiKeys apiKey) {
+        return apiKey == ApiKeys.FIND_COORDINATOR;
     }
 
 
     @Override
-    @SuppressWarnings("PMD.AvoidAccessibilityAlteration")
-    protected void rewrite(final FindCoordinatorResponse response) throws NoSuchFieldException, IllegalAccessException {
-        final Field field = FindCoordinatorResponse.class.getDeclaredField("data");
-        field.setAccessible(true);
-        final FindCoordinatorResponseData data = (FindCoordinatorResponseData) field.get(response);
+    protected void rewrite(final FindCoordinatorResponse response) throws IllegalAccessException {
+        final FindCoordinatorResponseData data = (FindCoordinatorResponseData) DATA_FIELD.get(response);
         if (!isNullOrEmpty(data.host())) {
-            final BrokerMapping mapping = brokerResolver.apply(new Endpoint(data.host(), data.port()));
+            final Endpoint proxy = rewritePlan.proxyEndpoint(data.nodeId(), data.host(), data.port());
             LOG.debug(
                     "Rewriting {}: {}:{} (sole) -> {}:{}",
                     ApiKeys.FIND_COORDINATOR,
                     data.host(),
                     data.port(),
-                    mapping.getProxy().getHost(),
-                    mapping.getProxy().getPort()
+                    proxy.getHost(),
+                    proxy.getPort()
             );
-            data.setHost(mapping.getProxy().getHost());
-            data.setPort(mapping.getProxy().getPort());
+            data.setHost(proxy.getHost());
+            data.setPort(proxy.getPort());
         }
         if (data.coordinators() != null) {
             data.coordinators()
                     .stream()
                     .filter(it -> !isNullOrEmpty(it.host()))
                     .forEach(coordinator -> {
-                        final Endpoint coordinatorEndpoint = new Endpoint(coordinator.host(), coordinator.port());
-                        final BrokerMapping mapping = brokerResolver.apply(coordinatorEndpoint);
+                        final Endpoint proxy = rewritePlan.proxyEndpoint(
+                                coordinator.nodeId(),
+                                coordinator.host(),
+                                coordinator.port()
+                        );
                         LOG.debug(
                                 "Rewriting {}: {}:{} (list) -> {}:{}",
                                 ApiKeys.FIND_COORDINATOR,
                                 coordinator.host(),
                                 coordinator.port(),
-                                mapping.getProxy().getHost(),
-                                mapping.getProxy().getPort()
+                                proxy.getHost(),
+                                proxy.getPort()
                         );
-                        coordinator.setHost(mapping.getProxy().getHost());
-                        coordinator.setPort(mapping.getProxy().getPort());
+                        coordinator.setHost(proxy.getHost());
+                        coordinator.setPort(proxy.getPort());
                     });
         }
     }
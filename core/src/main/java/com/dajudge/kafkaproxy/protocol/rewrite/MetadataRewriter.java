@@ -17,53 +17,157 @@
 
 package com.dajudge.kafkaproxy.protocol.rewrite;
 
-import com.dajudge.kafkaproxy.BrokerMapping;
+import com.dajudge.kafkaproxy.protocol.KafkaMessage;
 import com.dajudge.proxybase.config.Endpoint;
-import org.apache.kafka.common.message.MetadataResponseData;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import org.apache.kafka.common.protocol.ApiKeys;
-import org.apache.kafka.common.requests.MetadataResponse;
-import org.apache.kafka.common.requests.RequestHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
-import java.util.function.Function;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.readArrayLength;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.readString;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.skipNullableString;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.skipString;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.skipTaggedFields;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.writeArrayLength;
+import static com.dajudge.kafkaproxy.protocol.rewrite.WireFormat.writeString;
 
-public class MetadataRewriter extends BaseReflectingRewriter<MetadataResponse> {
+// Only the brokers array of a metadata response is touched: it is re-encoded with the proxy endpoints
+// while everything around it (including the potentially huge topic/partition section) is passed on
+// as slices of the original response.
+public class MetadataRewriter implements ResponseRewriter {
     private static final Logger LOG = LoggerFactory.getLogger(MetadataRewriter.class);
-    private final Function<Endpoint, BrokerMapping> brokerResolver;
+    private static final int CORRELATION_ID_SIZE = 4;
+    private static final int THROTTLE_TIME_SIZE = 4;
+    private static final short FIRST_VERSION_WITH_RACK = 1;
+    private static final short FIRST_VERSION_WITH_THROTTLE_TIME = 3;
+    private static final short FIRST_FLEXIBLE_VERSION = 9;
+    private static final int NODE_ID_SIZE = 4;
+    private static final int PORT_SIZE = 4;
+    private final RewritePlan rewritePlan;
 
-    public MetadataRewriter(final Function<Endpoint, BrokerMapping> brokerResolver) {
-        this.brokerResolver = brokerResolver;
+    public MetadataRewriter(final RewritePlan rewritePlan) {
+        this.rewritePlan = rewritePlan;
     }
 
     @Override
-    @SuppressWarnings("PMD.AvoidAccessibilityAlteration")
-    protected void rewrite(final MetadataResponse response) throws NoSuchFieldException, IllegalAccessException {
-        final Field field = MetadataResponse.class.getDeclaredField("data");
-        field.setAccessible(true);
-        final MetadataResponseData data = (MetadataResponseData) field.get(response);
-        data.brokers().forEach(b -> {
-            final BrokerMapping mapping = brokerResolver.apply(new Endpoint(b.host(), b.port()));
-            if (mapping == null) {
-                LOG.error("Unknown broker node seen in {}: {}:{}", ApiKeys.METADATA, b.host(), b.port());
-            } else {
-                LOG.debug(
-                        "Rewriting {}: {}:{} -> {}:{}",
-                        ApiKeys.METADATA,
-                        b.host(),
-                        b.port(),
-                        mapping.getProxy().getHost(),
-                        mapping.getProxy().getPort()
-                );
-                b.setHost(mapping.getProxy().getHost());
-                b.setPort(mapping.getProxy().getPort());
-            }
-        });
+    public boolean appliesTo(final ApiKeys apiKey) {
+        return apiKey == ApiKeys.METADATA;
     }
 
     @Override
-    public boolean appliesTo(final RequestHeader requestHeader) {
-        return requestHeader.apiKey() == ApiKeys.METADATA;
+    public KafkaMessage rewrite(
+            final ApiKeys apiKey,
+            final short apiVersion,
+            final KafkaMessage message,
+            final ByteBufAllocator alloc
+    ) {
+        if (!appliesTo(apiKey)) {
+            return message;
+        }
+        LOG.trace("Rewriting {} v{}", apiKey, apiVersion);
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Original message: {}", message.responseBody(apiKey, apiVersion));
+        }
+        try {
+            final KafkaMessage rewrittenMessage = KafkaMessage.fromPayload(splice(apiVersion, message.payload(), alloc));
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Rewritten message: {}", rewrittenMessage.responseBody(apiKey, apiVersion));
+            }
+            return rewrittenMessage;
+        } finally {
+            message.release();
+        }
+    }
+
+    private ByteBuf splice(final short apiVersion, final ByteBuf payload, final ByteBufAllocator alloc) {
+        final boolean flexible = apiVersion >= FIRST_FLEXIBLE_VERSION;
+        final ByteBuf in = payload.duplicate();
+        in.skipBytes(CORRELATION_ID_SIZE);
+        if (flexible) {
+            skipTaggedFields(in); // Response header
+        }
+        if (apiVersion >= FIRST_VERSION_WITH_THROTTLE_TIME) {
+            in.skipBytes(THROTTLE_TIME_SIZE);
+        }
+        final int brokersStart = in.readerIndex();
+        skipBrokers(in, apiVersion, flexible);
+        final int brokersEnd = in.readerIndex();
+        final ByteBuf brokers = rewritePlan.rewrittenBrokers(
+                apiVersion,
+                payload.slice(brokersStart, brokersEnd - brokersStart),
+                original -> rewriteBrokers(original, apiVersion, flexible, alloc)
+        );
+        return alloc.compositeBuffer(3).addComponents(
+                true,
+                payload.retainedSlice(payload.readerIndex(), brokersStart - payload.readerIndex()),
+                brokers,
+                payload.retainedSlice(brokersEnd, payload.writerIndex() - brokersEnd)
+        );
+    }
+
+    private static void skipBrokers(final ByteBuf in, final short apiVersion, final boolean flexible) {
+        final int brokerCount = readArrayLength(in, flexible);
+        for (int i = 0; i < brokerCount; i++) {
+            in.skipBytes(NODE_ID_SIZE);
+            skipString(in, flexible);
+            in.skipBytes(PORT_SIZE);
+            skipBrokerTrailer(in, apiVersion, flexible);
+        }
+    }
+
+    private static void skipBrokerTrailer(final ByteBuf in, final short apiVersion, final boolean flexible) {
+        if (apiVersion >= FIRST_VERSION_WITH_RACK) {
+            skipNullableString(in, flexible);
+        }
+        if (flexible) {
+            skipTaggedFields(in);
+        }
+    }
+
+    private ByteBuf rewriteBrokers(
+            final ByteBuf in,
+            final short apiVersion,
+            final boolean flexible,
+            final ByteBufAllocator alloc
+    ) {
+        final int brokerCount = readArrayLength(in, flexible);
+        final ByteBuf brokers = alloc.buffer();
+        try {
+            writeArrayLength(brokerCount, brokers, flexible);
+            for (int i = 0; i < brokerCount; i++) {
+                final int nodeId = in.readInt();
+                brokers.writeInt(nodeId);
+                final Endpoint proxy = proxyEndpoint(nodeId, readString(in, flexible), in.readInt());
+                writeString(proxy.getHost(), brokers, flexible);
+                brokers.writeInt(proxy.getPort());
+                // Copy rack and tagged fields verbatim
+                final int trailerStart = in.readerIndex();
+                skipBrokerTrailer(in, apiVersion, flexible);
+                brokers.writeBytes(in, trailerStart, in.readerIndex() - trailerStart);
+            }
+            return brokers;
+        } catch (final RuntimeException e) {
+            brokers.release();
+            throw e;
+        }
+    }
+
+    private Endpoint proxyEndpoint(final int nodeId, final String host, final int port) {
+        final Endpoint proxy = rewritePlan.proxyEndpoint(nodeId, host, port);
+        if (proxy == null) {
+            LOG.error("Unknown broker node seen in {}: {}:{}", ApiKeys.METADATA, host, port);
+            return new Endpoint(host, port);
+        }
+        LOG.debug(
+                "Rewriting {}: {}:{} -> {}:{}",
+                ApiKeys.METADATA,
+                host,
+                port,
+                proxy.getHost(),
+                proxy.getPort()
+        );
+        return proxy;
     }
 }
@@ -18,8 +18,11 @@
 package com.dajudge.kafkaproxy.protocol.rewrite;
 
 import com.dajudge.kafkaproxy.protocol.KafkaMessage;
-import org.apache.kafka.common.requests.RequestHeader;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.kafka.common.protocol.ApiKeys;
 
 public interface ResponseRewriter {
-    KafkaMessage rewrite(RequestHeader requestHeader, KafkaMessage message);
+    boolean appliesTo(ApiKeys apiKey);
+
+    KafkaMessage rewrite(ApiKeys apiKey, short apiVersion, KafkaMessage message, ByteBufAllocator alloc);
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol.rewrite;
+
+import com.dajudge.kafkaproxy.BrokerMapping;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static io.netty.buffer.Unpooled.copiedBuffer;
+import static java.util.Collections.emptyMap;
+
+// Shared by the rewriters of all broker connections. The broker topology rarely changes, so once an
+// endpoint has been seen rewriting it is a lock-free lookup in an immutable snapshot and a Metadata
+// brokers array that has been seen before is replaced by its memoized rewritten encoding. Brokers are
+// additionally indexed by node ID, so a known node is rewritten with a single array access.
+public class RewritePlan {
+    private static final Logger LOG = LoggerFactory.getLogger(RewritePlan.class);
+    private static final int MAX_MEMOIZED_BROKER_SECTIONS = 64;
+    private static final int MAX_INDEXED_NODE_ID = 4095;
+    private final BrokerResolver brokerResolver;
+    private final ConcurrentMap<ByteBuf, ByteBuf>[] brokerSections;
+    private volatile Map<String, IntObjectMap<Endpoint>> proxyEndpoints = emptyMap();
+    private volatile BrokerMapping[] nodes = new BrokerMapping[0];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RewritePlan(final BrokerResolver brokerResolver) {
+        this.brokerResolver = brokerResolver;
+        brokerSections = new ConcurrentMap[ApiKeys.METADATA.latestVersion() + 1];
+        for (int i = 0; i < brokerSections.length; i++) {
+            brokerSections[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    public Endpoint proxyEndpoint(final int nodeId, final String host, final int port) {
+        final BrokerMapping[] indexed = nodes;
+        if (nodeId >= 0 && nodeId < indexed.length) {
+            final BrokerMapping node = indexed[nodeId];
+            // Brokers might move, so the endpoint of the node must still match
+            if (node != null && node.getBroker().getPort() == port && node.getBroker().getHost().equals(host)) {
+                return node.getProxy();
+            }
+        }
+        final IntObjectMap<Endpoint> ports = proxyEndpoints.get(host);
+        final Endpoint known = ports == null ? null : ports.get(port);
+        final Endpoint proxyEndpoint = known == null ? learnProxyEndpoint(nodeId, host, port) : known;
+        if (proxyEndpoint != null && nodeId >= 0 && nodeId <= MAX_INDEXED_NODE_ID) {
+            index(nodeId, new BrokerMapping(new Endpoint(host, port), proxyEndpoint));
+        }
+        return proxyEndpoint;
+    }
+
+    private synchronized void index(final int nodeId, final BrokerMapping node) {
+        final BrokerMapping[] indexed = Arrays.copyOf(nodes, Math.max(nodes.length, nodeId + 1));
+        indexed[nodeId] = node;
+        nodes = indexed;
+    }
+
+    private Endpoint learnProxyEndpoint(final int nodeId, final String host, final int port) {
+        final BrokerMapping mapping = brokerResolver.resolve(nodeId, new Endpoint(host, port));
+        if (mapping == null) {
+            return null;
+        }
+        LOG.debug("Learned mapping {}:{} -> {}", host, port, mapping.getProxy());
+        synchronized (this) {
+            final Map<String, IntObjectMap<Endpoint>> endpoints = new HashMap<>(proxyEndpoints);
+            final IntObjectMap<Endpoint> ports = new IntObjectHashMap<>();
+            final IntObjectMap<Endpoint> knownPorts = endpoints.get(host);
+            if (knownPorts != null) {
+                ports.putAll(knownPorts);
+            }
+            ports.put(port, mapping.getProxy());
+            endpoints.put(host, ports);
+            proxyEndpoints = endpoints;
+        }
+        return mapping.getProxy();
+    }
+
+    // Returns a retained buffer holding the rewritten encoding of the given Metadata brokers array.
+    ByteBuf rewrittenBrokers(
+            final short apiVersion,
+            final ByteBuf brokers,
+            final Function<ByteBuf, ByteBuf> rewrite
+    ) {
+        if (apiVersion >= brokerSections.length) {
+            // Negotiated by clients and brokers newer than the client library, which has no table for them
+            return rewrite.apply(brokers.duplicate());
+        }
+        final ConcurrentMap<ByteBuf, ByteBuf> sections = brokerSections[apiVersion];
+        final ByteBuf memoized = sections.get(brokers);
+        if (memoized != null) {
+            return memoized.retainedDuplicate();
+        }
+        final ByteBuf rewritten = rewrite.apply(brokers.duplicate());
+        if (sections.size() >= MAX_MEMOIZED_BROKER_SECTIONS) {
+            // Memoized sections are handed out without synchronization and can therefore never be
+            // released again. When the topology churns that much just stop memoizing.
+            return rewritten;
+        }
+        final ByteBuf previous = sections.putIfAbsent(copiedBuffer(brokers), rewritten);
+        if (previous != null) {
+            return rewritten;
+        }
+        return rewritten.retainedDuplicate();
+    }
+}
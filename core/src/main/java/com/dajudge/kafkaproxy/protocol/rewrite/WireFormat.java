@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol.rewrite;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Primitive types of the Kafka protocol, read from and written to ByteBufs in place.
+final class WireFormat {
+    private static final int VARINT_MAX_SHIFT = 28;
+    private static final int NULL_STRING_LENGTH = -1;
+
+    private WireFormat() {
+    }
+
+    static int readUnsignedVarint(final ByteBuf in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        while (((b = in.readByte()) & 0x80) != 0) {
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+            if (shift > VARINT_MAX_SHIFT) {
+                throw new IllegalArgumentException("Varint is too long");
+            }
+        }
+        return value | (b << shift);
+    }
+
+    static void writeUnsignedVarint(final int value, final ByteBuf out) {
+        int remaining = value;
+        while ((remaining & 0xffffff80) != 0) {
+            out.writeByte((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    static int readArrayLength(final ByteBuf in, final boolean flexible) {
+        return flexible ? readUnsignedVarint(in) - 1 : in.readInt();
+    }
+
+    static void writeArrayLength(final int length, final ByteBuf out, final boolean flexible) {
+        if (flexible) {
+            writeUnsignedVarint(length + 1, out);
+        } else {
+            out.writeInt(length);
+        }
+    }
+
+    static String readString(final ByteBuf in, final boolean flexible) {
+        final int length = readStringLength(in, flexible);
+        final String string = in.toString(in.readerIndex(), length, UTF_8);
+        in.skipBytes(length);
+        return string;
+    }
+
+    static void writeString(final String string, final ByteBuf out, final boolean flexible) {
+        final int length = ByteBufUtil.utf8Bytes(string);
+        if (flexible) {
+            writeUnsignedVarint(length + 1, out);
+        } else {
+            out.writeShort(length);
+        }
+        ByteBufUtil.writeUtf8(out, string);
+    }
+
+    static void skipString(final ByteBuf in, final boolean flexible) {
+        in.skipBytes(readStringLength(in, flexible));
+    }
+
+    static void skipNullableString(final ByteBuf in, final boolean flexible) {
+        final int length = readStringLength(in, flexible);
+        if (length != NULL_STRING_LENGTH) {
+            in.skipBytes(length);
+        }
+    }
+
+    static void skipTaggedFields(final ByteBuf in) {
+        final int fieldCount = readUnsignedVarint(in);
+        for (int i = 0; i < fieldCount; i++) {
+            readUnsignedVarint(in); // Tag
+            in.skipBytes(readUnsignedVarint(in));
+        }
+    }
+
+    private static int readStringLength(final ByteBuf in, final boolean flexible) {
+        return flexible ? readUnsignedVarint(in) - 1 : in.readShort();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.stream.Collectors.toSet;
+
+// Reports any change in the directories containing the given files. Any change is reported since mounted
+// secrets are usually updated by swapping a symlink rather than modifying the files themselves.
+class DirectoryWatcher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryWatcher.class);
+    private final WatchService watchService;
+    private final Runnable listener;
+
+    private DirectoryWatcher(final String name, final WatchService watchService, final Runnable listener) {
+        this.watchService = watchService;
+        this.listener = listener;
+        new DefaultThreadFactory("kafkaproxy-ssl-watch-" + name, true).newThread(this::run).start();
+    }
+
+    static Optional<DirectoryWatcher> watch(
+            final String name,
+            final Collection<String> files,
+            final Runnable listener
+    ) {
+        final Set<Path> directories = files.stream()
+                .map(it -> Paths.get(it).toAbsolutePath().getParent())
+                .collect(toSet());
+        if (directories.isEmpty() || !directories.stream().allMatch(Files::isDirectory)) {
+            return Optional.empty();
+        }
+        try {
+            final WatchService watchService = FileSystems.getDefault().newWatchService();
+            try {
+                for (final Path directory : directories) {
+                    directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            } catch (final IOException | RuntimeException e) {
+                watchService.close();
+                throw e;
+            }
+            return Optional.of(new DirectoryWatcher(name, watchService, listener));
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Cannot watch {} for changes", directories, e);
+            return Optional.empty();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                key.pollEvents();
+                key.reset();
+                listener.run();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException e) {
+            LOG.trace("Stopped watching for changes", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOG.debug("Failed to close watch service", e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.config.DownstreamSslConfigSource.DownstreamSslConfig;
+import com.dajudge.kafkaproxy.config.SslEngineConfig;
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import com.dajudge.proxybase.certs.Filesystem;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SimpleTrustManagerFactory;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import static com.dajudge.kafkaproxy.ssl.SslContexts.build;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.configure;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.files;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.keyManagerFactory;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.trustManagerFactory;
+
+// All broker connections share a single client context, its session cache is keyed by the broker's host and port
+public class DownstreamSslHandlerFactory implements AutoCloseable {
+    private final ReloadingSslContext context;
+    private final HandshakeStatistics statistics;
+    private final Executor handshakeExecutor;
+    private final SslEngineConfig engineConfig;
+
+    public DownstreamSslHandlerFactory(
+            final DownstreamSslConfig config,
+            final Filesystem filesystem,
+            final Executor handshakeExecutor,
+            final MetricsRegistry metrics
+    ) {
+        this.handshakeExecutor = handshakeExecutor;
+        engineConfig = config.getEngine();
+        final Collection<String> files = new ArrayList<>();
+        config.getTrustStore().ifPresent(it -> files.addAll(files(it)));
+        config.getKeyStore().ifPresent(it -> files.addAll(files(it)));
+        final int refreshSecs = Stream.of(config.getTrustStore(), config.getKeyStore())
+                .filter(it -> it.isPresent())
+                .mapToInt(it -> it.get().getRefreshSecs())
+                .min()
+                .orElse(0);
+        context = new ReloadingSslContext(
+                "downstream",
+                () -> createContext(config, filesystem),
+                files,
+                filesystem,
+                refreshSecs
+        );
+        statistics = new HandshakeStatistics("downstream", metrics);
+    }
+
+    private static SslContext createContext(
+            final DownstreamSslConfig config,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        final SslContextBuilder builder = SslContextBuilder.forClient().trustManager(trustManager(config, filesystem));
+        if (config.getKeyStore().isPresent()) {
+            builder.keyManager(keyManagerFactory(config.getKeyStore().get(), filesystem));
+        }
+        return build(builder, config.getEngine());
+    }
+
+    private static TrustManagerFactory trustManager(
+            final DownstreamSslConfig config,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        final TrustManagerFactory factory = trustManagerFactory(config.getTrustStore(), filesystem);
+        if (!config.isHostnameVerificationEnabled()) {
+            return factory;
+        }
+        final TrustManager[] trustManagers = wrap(factory.getTrustManagers());
+        return new SimpleTrustManagerFactory() {
+            @Override
+            protected void engineInit(final KeyStore keyStore) {
+            }
+
+            @Override
+            protected void engineInit(final ManagerFactoryParameters managerFactoryParameters) {
+            }
+
+            @Override
+            protected TrustManager[] engineGetTrustManagers() {
+                return trustManagers;
+            }
+        };
+    }
+
+    // Invoked for every load of the trust store, so each reload starts with an empty verification cache
+    static TrustManager[] wrap(final TrustManager[] trustManagers) {
+        final TrustManager[] wrapped = new TrustManager[trustManagers.length];
+        for (int i = 0; i < trustManagers.length; i++) {
+            wrapped[i] = trustManagers[i] instanceof X509ExtendedTrustManager
+                    ? new HostnameVerifyingTrustManager((X509ExtendedTrustManager) trustManagers[i])
+                    : trustManagers[i];
+        }
+        return wrapped;
+    }
+
+    public ChannelHandler createSslHandler(final ByteBufAllocator alloc, final Endpoint broker) {
+        return configure(
+                context.get().newHandler(alloc, broker.getHost(), broker.getPort(), handshakeExecutor),
+                engineConfig
+        );
+    }
+
+    public ChannelHandler createHandshakeStatisticsHandler() {
+        return new HandshakeStatisticsHandler(statistics);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
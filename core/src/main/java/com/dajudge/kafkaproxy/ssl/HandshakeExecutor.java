@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Runs the delegated tasks of SSL engines (certificate validation, key exchange) off the I/O threads
+public class HandshakeExecutor implements Executor, AutoCloseable {
+    private final ThreadPoolExecutor pool;
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+
+    public HandshakeExecutor(final int threads, final int queueSize, final MetricsRegistry metrics) {
+        // When the queue is full the I/O thread runs the task itself instead of failing the handshake
+        pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new DefaultThreadFactory("kafkaproxy-ssl-handshake", true),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        metrics.gauge(
+                "ssl.handshake.queue.size",
+                "Number of TLS handshake tasks waiting for a handshake thread",
+                emptyMap(),
+                () -> pool.getQueue().size()
+        );
+        metrics.gauge("ssl.handshake.tasks", "Number of TLS handshake tasks run", emptyMap(), tasks::sum);
+        metrics.gauge(
+                "ssl.handshake.task.wait.time",
+                "Time TLS handshake tasks waited for a handshake thread in nanoseconds",
+                emptyMap(),
+                waitNanos::sum
+        );
+        metrics.gauge(
+                "ssl.handshake.task.time",
+                "Time spent running TLS handshake tasks in nanoseconds",
+                emptyMap(),
+                runNanos::sum
+        );
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        final long queuedNanos = System.nanoTime();
+        pool.execute(() -> {
+            final long startedNanos = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                tasks.increment();
+                waitNanos.add(startedNanos - queuedNanos);
+                runNanos.add(System.nanoTime() - startedNanos);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
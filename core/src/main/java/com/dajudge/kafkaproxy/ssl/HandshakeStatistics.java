@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Collections.singletonMap;
+
+class HandshakeStatistics {
+    private final LongAdder full = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder handshakeNanos = new LongAdder();
+
+    HandshakeStatistics(final String side, final MetricsRegistry metrics) {
+        register(metrics, side, "full", full);
+        register(metrics, side, "resumed", resumed);
+        register(metrics, side, "failed", failures);
+        metrics.gauge(
+                "ssl.handshake.time",
+                "Time from connection to successfully completed TLS handshake in nanoseconds",
+                singletonMap("side", side),
+                handshakeNanos::sum
+        );
+    }
+
+    private static void register(
+            final MetricsRegistry metrics,
+            final String side,
+            final String type,
+            final LongAdder counter
+    ) {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("side", side);
+        tags.put("type", type);
+        metrics.gauge("ssl.handshakes", "Number of TLS handshakes by outcome", tags, counter::sum);
+    }
+
+    void completed(final boolean resumedSession, final long nanos) {
+        (resumedSession ? resumed : full).increment();
+        handshakeNanos.add(nanos);
+    }
+
+    void failed() {
+        failures.increment();
+    }
+}
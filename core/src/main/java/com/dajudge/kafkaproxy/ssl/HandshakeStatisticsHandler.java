@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+
+class HandshakeStatisticsHandler extends ChannelInboundHandlerAdapter {
+    private final HandshakeStatistics statistics;
+    private long startedMillis;
+    private long startedNanos;
+
+    HandshakeStatisticsHandler(final HandshakeStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+        started();
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        // Connections to brokers are set up before they're connected
+        started();
+        super.channelActive(ctx);
+    }
+
+    private void started() {
+        startedMillis = System.currentTimeMillis();
+        startedNanos = System.nanoTime();
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
+        super.userEventTriggered(ctx, evt);
+        if (evt instanceof SslHandshakeCompletionEvent) {
+            if (((SslHandshakeCompletionEvent) evt).isSuccess()) {
+                // A resumed session keeps the creation time of the handshake that established it
+                final SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+                statistics.completed(
+                        sslHandler.engine().getSession().getCreationTime() < startedMillis,
+                        System.nanoTime() - startedNanos
+                );
+            } else {
+                statistics.failed();
+            }
+            ctx.pipeline().remove(this);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import org.apache.hc.client5.http.ssl.DefaultHostnameVerifier;
+import org.apache.hc.client5.http.ssl.HttpClientHostnameVerifier;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Verifies the broker's hostname during the handshake, caching the result per certificate and hostname.
+// A new instance and thereby an empty cache is created whenever the trust store is reloaded.
+class HostnameVerifyingTrustManager extends X509ExtendedTrustManager {
+    private static final int MAX_CACHE_SIZE = 1024;
+    private final X509ExtendedTrustManager delegate;
+    private final HttpClientHostnameVerifier verifier;
+    private final Map<String, Boolean> verified = new ConcurrentHashMap<>();
+
+    HostnameVerifyingTrustManager(final X509ExtendedTrustManager delegate) {
+        this(delegate, new DefaultHostnameVerifier());
+    }
+
+    HostnameVerifyingTrustManager(final X509ExtendedTrustManager delegate, final HttpClientHostnameVerifier verifier) {
+        this.delegate = delegate;
+        this.verifier = verifier;
+    }
+
+    @Override
+    public void checkServerTrusted(
+            final X509Certificate[] chain,
+            final String authType,
+            final SSLEngine engine
+    ) throws CertificateException {
+        delegate.checkServerTrusted(chain, authType, engine);
+        verifyHostname(engine.getPeerHost(), chain[0]);
+    }
+
+    private void verifyHostname(final String hostname, final X509Certificate certificate) throws CertificateException {
+        if (verified.size() >= MAX_CACHE_SIZE) {
+            verified.clear();
+        }
+        final Boolean valid = verified.computeIfAbsent(fingerprint(certificate) + "@" + hostname, key -> {
+            try {
+                verifier.verify(hostname, certificate);
+                return true;
+            } catch (final SSLException e) {
+                return false;
+            }
+        });
+        if (!valid) {
+            throw new CertificateException("Certificate does not match hostname " + hostname);
+        }
+    }
+
+    int cachedVerifications() {
+        return verified.size();
+    }
+
+    private static String fingerprint(final X509Certificate certificate) throws CertificateException {
+        try {
+            return Base64.getEncoder().encodeToString(
+                    MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded())
+            );
+        } catch (final NoSuchAlgorithmException e) {
+            throw new CertificateException("Failed to fingerprint certificate", e);
+        }
+    }
+
+    @Override
+    public void checkServerTrusted(
+            final X509Certificate[] chain,
+            final String authType,
+            final Socket socket
+    ) throws CertificateException {
+        delegate.checkServerTrusted(chain, authType, socket);
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+        delegate.checkServerTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkClientTrusted(
+            final X509Certificate[] chain,
+            final String authType,
+            final SSLEngine engine
+    ) throws CertificateException {
+        delegate.checkClientTrusted(chain, authType, engine);
+    }
+
+    @Override
+    public void checkClientTrusted(
+            final X509Certificate[] chain,
+            final String authType,
+            final Socket socket
+    ) throws CertificateException {
+        delegate.checkClientTrusted(chain, authType, socket);
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+        delegate.checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return delegate.getAcceptedIssuers();
+    }
+}
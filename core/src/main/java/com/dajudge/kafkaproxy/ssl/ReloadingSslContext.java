@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.proxybase.certs.Filesystem;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// Handshakes always use the current context, checking for changed key material and building the new context
+// happens in the background. Handshakes in progress complete with the engine of the context they started with.
+class ReloadingSslContext implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadingSslContext.class);
+    // Updates usually consist of several file system events
+    private static final long RELOAD_DELAY_MILLIS = 500;
+    private final String name;
+    private final SslContextLoader loader;
+    private final Collection<String> files;
+    private final Filesystem filesystem;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final Optional<DirectoryWatcher> watcher;
+    private volatile SslContext context;
+    private byte[] fingerprint;
+
+    ReloadingSslContext(
+            final String name,
+            final SslContextLoader loader,
+            final Collection<String> files,
+            final Filesystem filesystem,
+            final int refreshSecs
+    ) {
+        this.name = name;
+        this.loader = loader;
+        this.files = files;
+        this.filesystem = filesystem;
+        try {
+            fingerprint = fingerprint();
+            context = loader.load();
+        } catch (final IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to create " + name + " SSL context", e);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("kafkaproxy-ssl-" + name, true));
+        watcher = DirectoryWatcher.watch(name, files, this::scheduleRefresh);
+        if (!watcher.isPresent() && !files.isEmpty()) {
+            if (refreshSecs > 0) {
+                LOG.info("Checking {} for changes every {} seconds", files, refreshSecs);
+                executor.scheduleWithFixedDelay(this::refresh, refreshSecs, refreshSecs, SECONDS);
+            } else {
+                LOG.warn(
+                        "Not checking {} for changes, the directories cannot be watched and polling is disabled",
+                        files
+                );
+            }
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                refreshScheduled.set(false);
+                refresh();
+            }, RELOAD_DELAY_MILLIS, MILLISECONDS);
+        }
+    }
+
+    SslContext get() {
+        return context;
+    }
+
+    private void refresh() {
+        try {
+            final byte[] current = fingerprint();
+            if (Arrays.equals(current, fingerprint)) {
+                return;
+            }
+            context = loader.load();
+            fingerprint = current;
+            LOG.info("Reloaded {} SSL context", name);
+        } catch (final IOException | GeneralSecurityException | RuntimeException e) {
+            LOG.error("Failed to reload {} SSL context, keeping the current one", name, e);
+        }
+    }
+
+    private byte[] fingerprint() throws IOException, GeneralSecurityException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (final String file : files) {
+            digest.update(filesystem.readFile(file));
+        }
+        return digest.digest();
+    }
+
+    @Override
+    public void close() {
+        watcher.ifPresent(DirectoryWatcher::close);
+        executor.shutdownNow();
+    }
+
+    interface SslContextLoader {
+        SslContext load() throws IOException, GeneralSecurityException;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.config.SslEngineConfig;
+import com.dajudge.kafkaproxy.config.StoreConfig;
+import com.dajudge.proxybase.certs.Filesystem;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+final class SslContexts {
+    private static final Logger LOG = LoggerFactory.getLogger(SslContexts.class);
+
+    private SslContexts() {
+    }
+
+    static SslContext build(
+            final SslContextBuilder builder,
+            final SslEngineConfig config
+    ) throws GeneralSecurityException, IOException {
+        builder.sslProvider(provider(config.getProvider())).protocols(config.getProtocols()
+                .map(it -> it.toArray(new String[0]))
+                .orElseGet(SslContexts::defaultProtocols));
+        config.getCipherSuites().ifPresent(it -> builder.ciphers(it, SupportedCipherSuiteFilter.INSTANCE));
+        final SslContext context = builder.build();
+        if (context.cipherSuites().isEmpty()) {
+            throw new IllegalArgumentException("None of the configured cipher suites is supported: "
+                    + config.getCipherSuites().orElse(null));
+        }
+        return context;
+    }
+
+    static SslHandler configure(final SslHandler handler, final SslEngineConfig config) {
+        handler.setWrapDataSize(config.getWrapDataSize());
+        return handler;
+    }
+
+    private static SslProvider provider(final SslProvider provider) {
+        if (provider != SslProvider.JDK && !OpenSsl.isAvailable()) {
+            LOG.warn(
+                    "OpenSSL is not available, falling back to the JDK SSL provider: {}",
+                    OpenSsl.unavailabilityCause().toString()
+            );
+            return SslProvider.JDK;
+        }
+        return provider;
+    }
+
+    static KeyManagerFactory keyManagerFactory(
+            final StoreConfig config,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        final char[] storePassword = password(config.getPassword(), config.getPasswordLocation(), filesystem);
+        final char[] keyPassword = password(config.getKeyPassword(), config.getKeyPasswordLocation(), filesystem);
+        final KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        // Most key stores protect their keys with the store password if no separate key password is given
+        factory.init(load(config, storePassword, filesystem), keyPassword.length > 0 ? keyPassword : storePassword);
+        return factory;
+    }
+
+    static TrustManagerFactory trustManagerFactory(
+            final Optional<StoreConfig> config,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        final TrustManagerFactory factory = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm()
+        );
+        if (config.isPresent()) {
+            final StoreConfig trustStore = config.get();
+            final char[] password = password(trustStore.getPassword(), trustStore.getPasswordLocation(), filesystem);
+            factory.init(load(trustStore, password, filesystem));
+        } else {
+            // Uses the JRE's default trust store
+            factory.init((KeyStore) null);
+        }
+        return factory;
+    }
+
+    static Collection<String> files(final StoreConfig config) {
+        final List<String> files = new ArrayList<>();
+        files.add(config.getLocation());
+        config.getPasswordLocation().ifPresent(files::add);
+        config.getKeyPasswordLocation().ifPresent(files::add);
+        return files;
+    }
+
+    // Netty does not enable TLSv1.3 for the JDK provider by default
+    static String[] defaultProtocols() {
+        try {
+            final List<String> supported = asList(SSLContext.getDefault().getSupportedSSLParameters().getProtocols());
+            return asList("TLSv1.3", "TLSv1.2").stream().filter(supported::contains).toArray(String[]::new);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to determine supported TLS protocols", e);
+        }
+    }
+
+    private static KeyStore load(
+            final StoreConfig config,
+            final char[] password,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance(config.getType());
+        try (final InputStream stream = new ByteArrayInputStream(filesystem.readFile(config.getLocation()))) {
+            keyStore.load(stream, password);
+        }
+        return keyStore;
+    }
+
+    private static char[] password(
+            final char[] password,
+            final Optional<String> passwordLocation,
+            final Filesystem filesystem
+    ) throws IOException {
+        if (passwordLocation.isPresent()) {
+            return new String(filesystem.readFile(passwordLocation.get()), UTF_8).trim().toCharArray();
+        }
+        return password;
+    }
+}
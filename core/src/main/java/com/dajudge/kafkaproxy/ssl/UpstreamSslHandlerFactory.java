@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.config.SslEngineConfig;
+import com.dajudge.kafkaproxy.config.UpstreamSslConfigSource.UpstreamSslConfig;
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import com.dajudge.proxybase.certs.Filesystem;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+import static com.dajudge.kafkaproxy.ssl.SslContexts.build;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.configure;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.files;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.keyManagerFactory;
+import static com.dajudge.kafkaproxy.ssl.SslContexts.trustManagerFactory;
+
+// All client connections share a single server context and thereby its session cache
+public class UpstreamSslHandlerFactory implements AutoCloseable {
+    private final ReloadingSslContext context;
+    private final HandshakeStatistics statistics;
+    private final Executor handshakeExecutor;
+    private final SslEngineConfig engineConfig;
+
+    public UpstreamSslHandlerFactory(
+            final UpstreamSslConfig config,
+            final Filesystem filesystem,
+            final Executor handshakeExecutor,
+            final MetricsRegistry metrics
+    ) {
+        this.handshakeExecutor = handshakeExecutor;
+        engineConfig = config.getEngine();
+        final Collection<String> files = new ArrayList<>(files(config.getKeyStore()));
+        config.getTrustStore().ifPresent(it -> files.addAll(files(it)));
+        final int refreshSecs = config.getTrustStore()
+                .map(it -> Math.min(it.getRefreshSecs(), config.getKeyStore().getRefreshSecs()))
+                .orElse(config.getKeyStore().getRefreshSecs());
+        context = new ReloadingSslContext(
+                "upstream",
+                () -> createContext(config, filesystem),
+                files,
+                filesystem,
+                refreshSecs
+        );
+        statistics = new HandshakeStatistics("upstream", metrics);
+    }
+
+    private static SslContext createContext(
+            final UpstreamSslConfig config,
+            final Filesystem filesystem
+    ) throws IOException, GeneralSecurityException {
+        return build(SslContextBuilder.forServer(keyManagerFactory(config.getKeyStore(), filesystem))
+                .trustManager(trustManagerFactory(config.getTrustStore(), filesystem))
+                .clientAuth(config.isAuthRequired() ? ClientAuth.REQUIRE : ClientAuth.NONE)
+                .sessionCacheSize(config.getSessionCacheSize())
+                .sessionTimeout(config.getSessionTimeoutSecs()), config.getEngine());
+    }
+
+    public ChannelHandler createSslHandler(final ByteBufAllocator alloc) {
+        return configure(context.get().newHandler(alloc, handshakeExecutor), engineConfig);
+    }
+
+    public ChannelHandler createHandshakeStatisticsHandler() {
+        return new HandshakeStatisticsHandler(statistics);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+public class BrokerJournalTest {
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void replays_appended_mappings() throws IOException {
+        final Path path = temp.newFile().toPath();
+        try (BrokerJournal journal = BrokerJournal.open(path.toString())) {
+            journal.append(mapping("broker0", 4000), BrokerMapper.UNKNOWN_NODE_ID);
+            journal.append(mapping("broker1", 4001), 1);
+        }
+
+        try (BrokerJournal journal = BrokerJournal.open(path.toString())) {
+            assertEquals(asList("-1 broker0:9092 4000", "1 broker1:9092 4001"), lines(journal.getEntries()));
+        }
+    }
+
+    @Test
+    public void truncates_partially_written_line() throws IOException {
+        final Path path = temp.newFile().toPath();
+        Files.write(path, "1 broker1:9092 4001\n2 broker2:90".getBytes(UTF_8));
+
+        try (BrokerJournal journal = BrokerJournal.open(path.toString())) {
+            assertEquals(singletonList("1 broker1:9092 4001"), lines(journal.getEntries()));
+            journal.append(mapping("broker3", 4003), 3);
+        }
+
+        assertEquals("1 broker1:9092 4001\n3 broker3:9092 4003\n", new String(Files.readAllBytes(path), UTF_8));
+    }
+
+    @Test
+    public void compacts_to_recovered_mappings() throws IOException {
+        final Path path = temp.newFile().toPath();
+        Files.write(path, "1 broker1:9092 4001\n2 broker2:9092 4002\n1 broker1:9092 4001\n".getBytes(UTF_8));
+
+        try (BrokerJournal journal = BrokerJournal.open(path.toString())) {
+            journal.compact(journal.getEntries().subList(1, 2));
+            journal.append(mapping("broker3", 4003), 3);
+        }
+
+        assertEquals("2 broker2:9092 4002\n3 broker3:9092 4003\n", new String(Files.readAllBytes(path), UTF_8));
+    }
+
+    private static BrokerMapping mapping(final String host, final int proxyPort) {
+        return new BrokerMapping(new Endpoint(host, 9092), new Endpoint("proxy", proxyPort));
+    }
+
+    private static List<String> lines(final List<BrokerMapFile.Entry> entries) {
+        return entries.stream()
+                .map(it -> it.getNodeId().orElse(BrokerMapper.UNKNOWN_NODE_ID) + " "
+                        + EndpointKey.of(it.getBroker().get()) + " " + it.getProxyPort())
+                .collect(toList());
+    }
+}
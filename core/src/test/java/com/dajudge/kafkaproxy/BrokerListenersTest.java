@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.BindException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dajudge.kafkaproxy.BrokerMapper.UNKNOWN_NODE_ID;
+import static com.dajudge.kafkaproxy.roundtrip.util.Await.await;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class BrokerListenersTest {
+    private static final Endpoint BROKER = new Endpoint("broker", 9092);
+    private final ScheduledExecutorService listenerExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger nextPort = new AtomicInteger(40000);
+    private final List<BrokerMapping> binds = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final CountDownLatch bindable = new CountDownLatch(1);
+    private final BrokerListeners listeners = new BrokerListeners(
+            (nodeId, broker) -> new BrokerMapping(broker, new Endpoint("proxy", nextPort.getAndIncrement())),
+            listenerExecutor,
+            resolver -> this::bind,
+            10,
+            40
+    );
+
+    @After
+    public void tearDown() {
+        bindable.countDown();
+        listenerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void binds_provisioned_proxies_in_the_background() throws Exception {
+        final BrokerMapping mapping = listeners.resolve(UNKNOWN_NODE_ID, BROKER);
+
+        assertSame(mapping, listeners.resolve(UNKNOWN_NODE_ID, BROKER));
+        assertFalse(listeners.isBound(BROKER));
+        bindable.countDown();
+        await(() -> listeners.isBound(BROKER));
+        assertEquals(singletonList(mapping), binds);
+    }
+
+    @Test
+    public void retries_failed_binds() throws Exception {
+        failures.set(3);
+        bindable.countDown();
+
+        final BrokerMapping mapping = listeners.resolve(UNKNOWN_NODE_ID, BROKER);
+
+        await(() -> listeners.isBound(BROKER));
+        assertEquals(4, binds.size());
+        binds.forEach(it -> assertSame(mapping, it));
+        assertSame(mapping, listeners.resolve(UNKNOWN_NODE_ID, BROKER));
+    }
+
+    @Test
+    public void retries_failed_prebinds() throws Exception {
+        final BrokerMapping mapping = new BrokerMapping(BROKER, new Endpoint("proxy", 39999));
+        failures.set(1);
+        bindable.countDown();
+
+        listeners.bindAll(singletonList(mapping));
+
+        assertSame(mapping, listeners.resolve(UNKNOWN_NODE_ID, BROKER));
+        await(() -> listeners.isBound(BROKER));
+        assertEquals(2, binds.size());
+    }
+
+    private void bind(final BrokerMapping mapping) throws InterruptedException, BindException {
+        bindable.await();
+        binds.add(mapping);
+        if (failures.getAndDecrement() > 0) {
+            throw new BindException("Address already in use");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy;
+
+import com.dajudge.kafkaproxy.config.BrokerConfigSource.BrokerConfig;
+import com.dajudge.proxybase.config.Endpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class BrokerMapperTest {
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+    private static final BrokerConfig CONFIG = config(emptyList(), PortMapping.SEQUENTIAL);
+    private final BrokerMapper mapper = new BrokerMapper(CONFIG);
+
+    @Test
+    public void returns_same_mapping_for_same_endpoint() {
+        final BrokerMapping mapping = mapper.getBrokerMapping(new Endpoint("broker", 9092));
+        assertSame(mapping, mapper.getBrokerMapping(new Endpoint("broker", 9092)));
+        assertEquals(4000, mapping.getProxy().getPort());
+    }
+
+    @Test
+    public void distinguishes_endpoints_with_ambiguous_concatenation() {
+        final BrokerMapping first = mapper.getBrokerMapping(new Endpoint("host1", 23));
+        final BrokerMapping second = mapper.getBrokerMapping(new Endpoint("host12", 3));
+        assertNotEquals(first.getProxy().getPort(), second.getProxy().getPort());
+    }
+
+    @Test
+    public void assigns_ports_from_broker_map() {
+        final BrokerMapper mapper = new BrokerMapper(CONFIG, BrokerMapFile.parse(String.join("\n",
+                "brokers:",
+                "  - endpoint: broker0:9092",
+                "    proxyPort: 4000",
+                "  - nodeId: 1",
+                "    proxyPort: 4001"
+        )), emptyList(), (mapping, nodeId) -> {
+        });
+
+        assertEquals(singletonList(new EndpointKey("broker0", 9092)), mapper.getInitialMappings().stream()
+                .map(it -> EndpointKey.of(it.getBroker()))
+                .collect(toList()));
+        assertEquals(4002, mapper.getBrokerMapping(2, new Endpoint("broker2", 9092)).getProxy().getPort());
+        assertEquals(4001, mapper.getBrokerMapping(1, new Endpoint("broker1", 9092)).getProxy().getPort());
+        assertEquals(4000, mapper.getBrokerMapping(0, new Endpoint("broker0", 9092)).getProxy().getPort());
+        // The node moved, its mapped port still points to the previous endpoint
+        assertEquals(4003, mapper.getBrokerMapping(1, new Endpoint("broker1-new", 9092)).getProxy().getPort());
+    }
+
+    @Test
+    public void recovers_mappings_from_journal() throws IOException {
+        final String location = temp.newFile().getAbsolutePath();
+        try (BrokerJournal journal = BrokerJournal.open(location)) {
+            final BrokerMapper mapper = new BrokerMapper(CONFIG, emptyList(), journal.getEntries(), journal::append);
+            mapper.getBrokerMapping(new Endpoint("broker0", 9092));
+            mapper.getBrokerMapping(1, new Endpoint("broker1", 9092));
+        }
+        // A crash while appending leaves a partial line behind
+        Files.write(Paths.get(location), "2 broker2:90".getBytes(UTF_8), APPEND);
+
+        try (BrokerJournal journal = BrokerJournal.open(location)) {
+            final BrokerMapper mapper = new BrokerMapper(CONFIG, emptyList(), journal.getEntries(), journal::append);
+
+            assertEquals(2, mapper.getInitialMappings().size());
+            assertEquals(4001, mapper.getBrokerMapping(1, new Endpoint("broker1", 9092)).getProxy().getPort());
+            assertEquals(4002, mapper.getBrokerMapping(2, new Endpoint("broker2", 9092)).getProxy().getPort());
+        }
+    }
+
+    @Test
+    public void recovers_journal_entries_not_superseded() {
+        final BrokerMapper mapper = new BrokerMapper(CONFIG, BrokerMapFile.parse(String.join("\n",
+                "brokers:",
+                "  - endpoint: broker1:9092",
+                "    proxyPort: 4001"
+        )), asList(
+                new BrokerMapFile.Entry(0, new Endpoint("broker0", 9092), 4000),
+                new BrokerMapFile.Entry(1, new Endpoint("broker1", 9092), 4005),
+                new BrokerMapFile.Entry(0, new Endpoint("broker0", 9092), 4002),
+                new BrokerMapFile.Entry(3, new Endpoint("broker3", 9092), 4001)
+        ), (mapping, nodeId) -> {
+        });
+
+        assertEquals(singletonList(new EndpointKey("broker1", 9092)), mapper.getMappedBrokers().stream()
+                .map(EndpointKey::of)
+                .collect(toList()));
+        assertEquals(1, mapper.getRecoveredEntries().size());
+        assertEquals(4000, mapper.getRecoveredEntries().get(0).getProxyPort());
+        assertEquals(2, mapper.getInitialMappings().size());
+    }
+
+    @Test
+    public void derives_ports_from_node_ids() {
+        final BrokerConfig config = config(singletonList(new Endpoint("bootstrap", 9092)), PortMapping.NODE_ID);
+        final BrokerMapper mapper = new BrokerMapper(config);
+
+        assertEquals(4013, mapper.getBrokerMapping(12, new Endpoint("broker12", 9092)).getProxy().getPort());
+        assertEquals(4000, mapper.getBrokerMapping(new Endpoint("bootstrap", 9092)).getProxy().getPort());
+        assertEquals(4003, mapper.getBrokerMapping(2, new Endpoint("broker2", 9092)).getProxy().getPort());
+        // Collides with broker2
+        assertEquals(4004, mapper.getBrokerMapping(1001, new Endpoint("broker1001", 9092)).getProxy().getPort());
+    }
+
+    @Test
+    public void derives_same_ports_from_endpoints_regardless_of_discovery_order() {
+        final BrokerMapper first = new BrokerMapper(config(emptyList(), PortMapping.HASH));
+        final BrokerMapper second = new BrokerMapper(config(emptyList(), PortMapping.HASH));
+        final int port0 = first.getBrokerMapping(new Endpoint("kafka-0", 9092)).getProxy().getPort();
+        final int port1 = first.getBrokerMapping(new Endpoint("kafka-1", 9092)).getProxy().getPort();
+
+        assertEquals(port1, second.getBrokerMapping(new Endpoint("kafka-1", 9092)).getProxy().getPort());
+        assertEquals(port0, second.getBrokerMapping(new Endpoint("KAFKA-0", 9092)).getProxy().getPort());
+        assertNotEquals(port0, port1);
+    }
+
+    @Test
+    public void maps_endpoints_differing_in_host_case_to_same_proxy() {
+        final List<BrokerMapping> created = new ArrayList<>();
+        final BrokerMapper mapper = new BrokerMapper(
+                config(emptyList(), PortMapping.HASH),
+                emptyList(),
+                emptyList(),
+                (mapping, nodeId) -> created.add(mapping)
+        );
+        final BrokerMapping mapping = mapper.getBrokerMapping(new Endpoint("Kafka-0", 9092));
+
+        assertSame(mapping, mapper.getBrokerMapping(new Endpoint("kafka-0", 9092)));
+        assertEquals(singletonList(mapping), created);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_duplicate_proxy_ports_in_broker_map() {
+        BrokerMapFile.parse(String.join("\n",
+                "brokers:",
+                "  - nodeId: 0",
+                "    proxyPort: 4000",
+                "  - nodeId: 1",
+                "    proxyPort: 4000"
+        ));
+    }
+
+    private static BrokerConfig config(final List<Endpoint> bootstrapBrokers, final PortMapping portMapping) {
+        return new BrokerConfig(bootstrapBrokers, "proxy", 4000, "0.0.0.0", null, null, portMapping, 1000);
+    }
+}
@@ -17,10 +17,11 @@
 
 package com.dajudge.kafkaproxy.config;
 
+import com.dajudge.kafkaproxy.config.DownstreamSslConfigSource.DownstreamSslConfig;
 import com.dajudge.kafkaproxy.roundtrip.util.TestEnvironment;
-import com.dajudge.proxybase.config.DownstreamSslConfig;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class DownstreamSslConfigTest {
@@ -31,4 +32,14 @@ public class DownstreamSslConfigTest {
         final DownstreamSslConfig config = new ApplicationConfig(env).require(DownstreamSslConfig.class);
         assertFalse(config.getTrustStore().isPresent());
     }
+
+    @Test
+    public void accepts_zero_refresh_interval() {
+        final Environment env = new TestEnvironment()
+                .withEnv("KAFKAPROXY_KAFKA_SSL_ENABLED", "true")
+                .withEnv("KAFKAPROXY_KAFKA_SSL_TRUSTSTORE_LOCATION", "/truststore.jks")
+                .withEnv("KAFKAPROXY_KAFKA_SSL_TRUSTSTORE_REFRESH_SECS", "0");
+        final DownstreamSslConfig config = new ApplicationConfig(env).require(DownstreamSslConfig.class);
+        assertEquals(0, config.getTrustStore().get().getRefreshSecs());
+    }
 }
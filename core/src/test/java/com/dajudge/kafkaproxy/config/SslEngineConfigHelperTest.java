@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.config;
+
+import com.dajudge.kafkaproxy.roundtrip.util.TestEnvironment;
+import io.netty.handler.ssl.SslProvider;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.dajudge.kafkaproxy.config.SslEngineConfigHelper.loadSslEngineConfig;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class SslEngineConfigHelperTest {
+    private static final String PREFIX = "KAFKAPROXY_TEST_SSL_";
+
+    @Test
+    public void uses_defaults() {
+        final SslEngineConfig config = loadSslEngineConfig(new TestEnvironment(), PREFIX);
+
+        assertEquals(SslProvider.JDK, config.getProvider());
+        assertEquals(Optional.empty(), config.getProtocols());
+        assertEquals(Optional.empty(), config.getCipherSuites());
+        assertEquals(16 * 1024, config.getWrapDataSize());
+    }
+
+    @Test
+    public void parses_provider_case_insensitively() {
+        final TestEnvironment env = new TestEnvironment().withEnv(PREFIX + "PROVIDER", " openssl ");
+
+        assertEquals(SslProvider.OPENSSL, loadSslEngineConfig(env, PREFIX).getProvider());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_unknown_provider() {
+        loadSslEngineConfig(new TestEnvironment().withEnv(PREFIX + "PROVIDER", "OPENSSL_REFCNT"), PREFIX);
+    }
+
+    @Test
+    public void parses_protocols_and_cipher_suites() {
+        final TestEnvironment env = new TestEnvironment()
+                .withEnv(PREFIX + "PROTOCOLS", "TLSv1.3, TLSv1.2,")
+                .withEnv(PREFIX + "CIPHER_SUITES", " TLS_AES_128_GCM_SHA256 ,,TLS_AES_256_GCM_SHA384");
+        final SslEngineConfig config = loadSslEngineConfig(env, PREFIX);
+
+        assertEquals(Optional.of(asList("TLSv1.3", "TLSv1.2")), config.getProtocols());
+        assertEquals(Optional.of(asList("TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384")), config.getCipherSuites());
+    }
+
+    @Test
+    public void treats_blank_lists_as_unset() {
+        final TestEnvironment env = new TestEnvironment()
+                .withEnv(PREFIX + "PROTOCOLS", " , ")
+                .withEnv(PREFIX + "CIPHER_SUITES", "");
+        final SslEngineConfig config = loadSslEngineConfig(env, PREFIX);
+
+        assertEquals(Optional.empty(), config.getProtocols());
+        assertEquals(Optional.empty(), config.getCipherSuites());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_non_positive_wrap_data_size() {
+        loadSslEngineConfig(new TestEnvironment().withEnv(PREFIX + "WRAP_DATA_SIZE", "0"), PREFIX);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static com.dajudge.kafkaproxy.roundtrip.util.Await.await;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BrokerConnectionPoolTest {
+    private final DefaultEventLoopGroup group = new DefaultEventLoopGroup(1);
+    private final EventLoop loop = group.next();
+    private final LocalAddress address = new LocalAddress(randomUUID().toString());
+    private final List<Channel> accepted = new CopyOnWriteArrayList<>();
+    private Channel server;
+    private BrokerConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+        if (server != null) {
+            server.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully(0, 1, SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    public void replaces_connections_closed_by_the_broker() throws Exception {
+        startBroker();
+        pool = pool(60);
+        await(() -> accepted.size() == 1);
+
+        accepted.get(0).close();
+
+        await(() -> accepted.size() == 2);
+        final Channel channel = acquire();
+        assertNotNull(channel);
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    public void replaces_connections_exceeding_max_age() throws Exception {
+        startBroker();
+        pool = pool(1);
+        await(() -> accepted.size() == 1);
+
+        await(() -> accepted.size() >= 2);
+        await(() -> !accepted.get(0).isActive());
+        final Channel channel = acquire();
+        assertNotNull(channel);
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    public void retries_failed_pre_connects() throws Exception {
+        pool = pool(60);
+        assertNull(acquire());
+
+        startBroker();
+
+        await(() -> accepted.size() == 1);
+    }
+
+    @Test
+    public void hands_out_each_connection_once() throws Exception {
+        startBroker();
+        pool = pool(60);
+        await(() -> accepted.size() == 1);
+
+        final Channel first = acquire();
+        await(() -> accepted.size() == 2);
+        final Channel second = acquire();
+
+        assertNotNull(first);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void stops_pre_connecting_when_closed() throws Exception {
+        startBroker();
+        pool = pool(60);
+        await(() -> accepted.size() == 1);
+
+        pool.close();
+        await(() -> !accepted.get(0).isActive());
+
+        Thread.sleep(200);
+        assertEquals(1, accepted.size());
+        assertNull(acquire());
+    }
+
+    private void startBroker() {
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(final LocalChannel ch) {
+                        accepted.add(ch);
+                    }
+                })
+                .bind(address)
+                .syncUninterruptibly()
+                .channel();
+    }
+
+    private BrokerConnectionPool pool(final int maxAgeSecs) {
+        return new BrokerConnectionPool("test", group, this::connect, 1, maxAgeSecs);
+    }
+
+    private ChannelFuture connect(final EventLoop eventLoop) {
+        return new Bootstrap()
+                .group(eventLoop)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(address);
+    }
+
+    private Channel acquire() throws ExecutionException, InterruptedException {
+        return loop.submit(() -> pool.acquire(loop)).get();
+    }
+}
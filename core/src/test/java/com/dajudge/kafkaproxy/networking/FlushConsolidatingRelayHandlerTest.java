@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import com.dajudge.kafkaproxy.metrics.MetricsRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlushConsolidatingRelayHandlerTest {
+    private final EmbeddedChannel relayChannel = new EmbeddedChannel();
+
+    @Test
+    public void flushes_on_read_complete() {
+        final EmbeddedChannel channel = channel(10, 1024);
+
+        channel.pipeline().fireChannelRead(message(10));
+        channel.pipeline().fireChannelRead(message(10));
+        assertNull(relayChannel.readOutbound());
+
+        channel.pipeline().fireChannelReadComplete();
+        assertFlushed(2);
+    }
+
+    @Test
+    public void flushes_after_max_messages() {
+        final EmbeddedChannel channel = channel(2, 1024);
+
+        channel.pipeline().fireChannelRead(message(10));
+        assertNull(relayChannel.readOutbound());
+
+        channel.pipeline().fireChannelRead(message(10));
+        assertFlushed(2);
+    }
+
+    @Test
+    public void flushes_after_max_bytes() {
+        final EmbeddedChannel channel = channel(10, 100);
+
+        channel.pipeline().fireChannelRead(message(60));
+        assertNull(relayChannel.readOutbound());
+
+        channel.pipeline().fireChannelRead(message(60));
+        assertFlushed(2);
+    }
+
+    @Test
+    public void pauses_relay_channel_while_not_writable() {
+        final EmbeddedChannel channel = channel(10, 1024);
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+
+        channel.write(message(20));
+        assertFalse(relayChannel.config().isAutoRead());
+
+        channel.flush();
+        assertTrue(relayChannel.config().isAutoRead());
+        channel.<ByteBuf>readOutbound().release();
+    }
+
+    private EmbeddedChannel channel(final int maxMessages, final int maxBytes) {
+        return new EmbeddedChannel(new FlushConsolidatingRelayHandler(
+                "test",
+                relayChannel,
+                maxMessages,
+                maxBytes,
+                new RelayStatistics("test", MetricsRegistry.NONE)
+        ));
+    }
+
+    private void assertFlushed(final int messages) {
+        for (int i = 0; i < messages; i++) {
+            final ByteBuf message = relayChannel.readOutbound();
+            message.release();
+        }
+        assertNull(relayChannel.readOutbound());
+    }
+
+    private static ByteBuf message(final int size) {
+        return buffer(size).writeZero(size);
+    }
+}
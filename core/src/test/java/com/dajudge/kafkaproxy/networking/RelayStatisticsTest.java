@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.networking;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+
+public class RelayStatisticsTest {
+    private final Map<String, Supplier<Number>> buckets = new HashMap<>();
+    private final RelayStatistics statistics = new RelayStatistics("test", (name, description, tags, value) -> {
+        if ("relay.pause.duration".equals(name)) {
+            buckets.put(tags.get("le"), value);
+        }
+    });
+
+    @Test
+    public void counts_pauses_in_cumulative_duration_buckets() {
+        statistics.resumed(MILLISECONDS.toNanos(1));
+        statistics.resumed(MILLISECONDS.toNanos(50));
+        statistics.resumed(MILLISECONDS.toNanos(50));
+        statistics.resumed(MILLISECONDS.toNanos(60000));
+
+        assertEquals(1L, buckets.get("1").get());
+        assertEquals(1L, buckets.get("10").get());
+        assertEquals(3L, buckets.get("100").get());
+        assertEquals(3L, buckets.get("10000").get());
+        assertEquals(4L, buckets.get("+Inf").get());
+    }
+}
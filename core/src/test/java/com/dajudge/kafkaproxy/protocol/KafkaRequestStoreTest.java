@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol;
+
+import com.dajudge.kafkaproxy.protocol.rewrite.ResponseRewriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KafkaRequestStoreTest {
+    private final KafkaRequestStore store = new KafkaRequestStore(new ResponseRewriter() {
+        @Override
+        public boolean appliesTo(final ApiKeys apiKey) {
+            return apiKey == ApiKeys.METADATA;
+        }
+
+        @Override
+        public KafkaMessage rewrite(
+                final ApiKeys apiKey,
+                final short apiVersion,
+                final KafkaMessage message,
+                final ByteBufAllocator alloc
+        ) {
+            return message;
+        }
+    }, 2);
+
+    @Test
+    public void correlates_in_order() {
+        store.add(request(ApiKeys.FETCH, 1));
+        store.add(request(ApiKeys.METADATA, 2));
+
+        assertFalse(store.requiresRewrite(1));
+        assertTrue(store.requiresRewrite(2));
+    }
+
+    @Test
+    public void does_not_track_requests_without_rewriter() {
+        store.add(request(ApiKeys.FETCH, 1));
+        store.add(request(ApiKeys.FETCH, 2));
+        store.add(request(ApiKeys.METADATA, 3));
+        store.add(request(ApiKeys.FETCH, 4));
+
+        assertFalse(store.requiresRewrite(1));
+        assertFalse(store.requiresRewrite(2));
+        assertTrue(store.requiresRewrite(3));
+    }
+
+    @Test
+    public void rejects_requests_when_full() {
+        assertTrue(store.add(request(ApiKeys.METADATA, 1)));
+        assertTrue(store.add(request(ApiKeys.METADATA, 2)));
+
+        assertFalse(store.add(request(ApiKeys.METADATA, 3)));
+        assertTrue(store.add(request(ApiKeys.FETCH, 4)));
+        assertTrue(store.requiresRewrite(1));
+    }
+
+    @Test
+    public void closes_connection_when_full() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new RewritingKafkaMessageDuplexHandler(store));
+        channel.writeOutbound(request(ApiKeys.METADATA, 1), request(ApiKeys.METADATA, 2));
+
+        final ByteBuf rejected = request(ApiKeys.METADATA, 3);
+        final ChannelFuture write = channel.writeOneOutbound(rejected);
+
+        assertFalse(write.isSuccess());
+        assertFalse(channel.isOpen());
+        assertEquals(0, rejected.refCnt());
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuf request(final ApiKeys apiKey, final int correlationId) {
+        return header(apiKey, apiKey.latestVersion(), correlationId);
+    }
+
+    private static ByteBuf header(final ApiKeys apiKey, final short version, final int correlationId) {
+        return buffer()
+                .writeInt(0)
+                .writeShort(apiKey.id)
+                .writeShort(version)
+                .writeInt(correlationId)
+                .writeShort(-1);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol;
+
+import com.dajudge.kafkaproxy.protocol.rewrite.ResponseRewriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.netty.buffer.Unpooled.buffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingKafkaResponseInboundHandlerTest {
+    private static final int FETCH_CORRELATION_ID = 1;
+    private static final int METADATA_CORRELATION_ID = 2;
+    private KafkaRequestStore store;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setup() {
+        store = new KafkaRequestStore(new ResponseRewriter() {
+            @Override
+            public boolean appliesTo(final ApiKeys apiKey) {
+                return apiKey == ApiKeys.METADATA;
+            }
+
+            @Override
+            public KafkaMessage rewrite(
+                final ApiKeys apiKey,
+                final short apiVersion,
+                final KafkaMessage message,
+                final ByteBufAllocator alloc
+        ) {
+                return message;
+            }
+        }, 16);
+        channel = new EmbeddedChannel(new StreamingKafkaResponseInboundHandler(store));
+    }
+
+    @Test
+    public void streams_response_that_is_not_rewritten() {
+        store.add(request(ApiKeys.FETCH, FETCH_CORRELATION_ID));
+        final ByteBuf response = response(FETCH_CORRELATION_ID, 100);
+
+        channel.writeInbound(response.readRetainedSlice(20));
+        assertEquals(20, readChunk().readableBytes());
+
+        channel.writeInbound(response.readRetainedSlice(response.readableBytes()));
+        assertEquals(88, readChunk().readableBytes());
+        assertNull(channel.readInbound());
+        response.release();
+    }
+
+    @Test
+    public void aggregates_response_that_is_rewritten() {
+        store.add(request(ApiKeys.METADATA, METADATA_CORRELATION_ID));
+        final ByteBuf response = response(METADATA_CORRELATION_ID, 100);
+
+        channel.writeInbound(response.readRetainedSlice(20));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(response.readRetainedSlice(response.readableBytes()));
+        final Object message = channel.readInbound();
+        assertTrue(message instanceof KafkaMessage);
+        assertEquals(METADATA_CORRELATION_ID, ((KafkaMessage) message).correlationId());
+        ((KafkaMessage) message).release();
+        response.release();
+    }
+
+    @Test
+    public void splits_consecutive_responses() {
+        store.add(request(ApiKeys.FETCH, FETCH_CORRELATION_ID));
+        store.add(request(ApiKeys.METADATA, METADATA_CORRELATION_ID));
+        final ByteBuf responses = buffer()
+                .writeBytes(response(FETCH_CORRELATION_ID, 10))
+                .writeBytes(response(METADATA_CORRELATION_ID, 10));
+
+        channel.writeInbound(responses);
+        assertEquals(18, readChunk().readableBytes());
+        final KafkaMessage message = channel.readInbound();
+        assertEquals(METADATA_CORRELATION_ID, message.correlationId());
+        message.release();
+    }
+
+    private ByteBuf readChunk() {
+        final ByteBuf chunk = channel.readInbound();
+        try {
+            return chunk.copy();
+        } finally {
+            chunk.release();
+        }
+    }
+
+    private static ByteBuf request(final ApiKeys apiKey, final int correlationId) {
+        final String clientId = "client";
+        return buffer()
+                .writeInt(10 + clientId.length())
+                .writeShort(apiKey.id)
+                .writeShort(apiKey.latestVersion())
+                .writeInt(correlationId)
+                .writeShort(clientId.length())
+                .writeBytes(clientId.getBytes());
+    }
+
+    private static ByteBuf response(final int correlationId, final int bodySize) {
+        return buffer()
+                .writeInt(4 + bodySize)
+                .writeInt(correlationId)
+                .writeZero(bodySize);
+    }
+}
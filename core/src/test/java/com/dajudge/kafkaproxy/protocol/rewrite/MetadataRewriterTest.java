@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.protocol.rewrite;
+
+import com.dajudge.kafkaproxy.BrokerMapping;
+import com.dajudge.kafkaproxy.protocol.KafkaMessage;
+import com.dajudge.proxybase.config.Endpoint;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseBroker;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseBrokerCollection;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponsePartition;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopicCollection;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.ResponseHeader;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.buffer.Unpooled.wrappedBuffer;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.apache.kafka.common.requests.RequestUtils.serialize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class MetadataRewriterTest {
+    private static final int CORRELATION_ID = 42;
+    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+    private final MetadataRewriter rewriter = new MetadataRewriter(new RewritePlan(
+            (nodeId, broker) -> new BrokerMapping(
+                    broker,
+                    new Endpoint("proxy-of-" + broker.getHost(), broker.getPort() + 1000)
+            )
+    ));
+
+    @Test
+    public void rewrites_brokers_in_all_versions() {
+        for (short version = ApiKeys.METADATA.oldestVersion(); version <= ApiKeys.METADATA.latestVersion(); version++) {
+            final MetadataResponseData original = response(version);
+
+            // Second round is served from the memoized brokers array
+            for (int round = 0; round < 2; round++) {
+                final MetadataResponseData rewritten = rewrite(original, version);
+
+                assertEquals(expectedBrokers(version), rewritten.brokers());
+                assertEquals(original.topics(), rewritten.topics());
+                assertEquals(original.clusterId(), rewritten.clusterId());
+                assertEquals(original.controllerId(), rewritten.controllerId());
+            }
+        }
+    }
+
+    @Test
+    public void rewrites_brokers_in_versions_newer_than_known() {
+        final short latest = ApiKeys.METADATA.latestVersion();
+        final MetadataResponseData original = response(latest);
+
+        // Newer versions are assumed to keep the layout of the brokers array
+        for (int round = 0; round < 2; round++) {
+            final MetadataResponseData rewritten = rewrite(original, latest, (short) (latest + 1));
+
+            assertEquals(expectedBrokers(latest), rewritten.brokers());
+            assertEquals(original.topics(), rewritten.topics());
+        }
+    }
+
+    @Test
+    public void releases_rewritten_brokers_when_rewriting_fails() {
+        final List<ByteBuf> allocated = new ArrayList<>();
+        final ByteBufAllocator alloc = new PooledByteBufAllocator(false) {
+            @Override
+            public ByteBuf buffer() {
+                final ByteBuf buffer = super.buffer();
+                allocated.add(buffer);
+                return buffer;
+            }
+        };
+        final MetadataRewriter failingRewriter = new MetadataRewriter(new RewritePlan((nodeId, broker) -> {
+            throw new IllegalStateException("Resolution failed");
+        }));
+        final short version = ApiKeys.METADATA.latestVersion();
+        final KafkaMessage message = KafkaMessage.fromPayload(wrappedBuffer(serialize(
+                new ResponseHeader(CORRELATION_ID, ApiKeys.METADATA.responseHeaderVersion(version)).data(),
+                ApiKeys.METADATA.responseHeaderVersion(version),
+                response(version),
+                version
+        )));
+
+        try {
+            failingRewriter.rewrite(ApiKeys.METADATA, version, message, alloc);
+            fail("Rewriting should have failed");
+        } catch (final IllegalStateException e) {
+            assertFalse(allocated.isEmpty());
+            allocated.forEach(it -> assertEquals(0, it.refCnt()));
+        }
+    }
+
+    private MetadataResponseData rewrite(final MetadataResponseData data, final short version) {
+        return rewrite(data, version, version);
+    }
+
+    // Rewrites a response encoded in the given version as if the other version had been negotiated
+    private MetadataResponseData rewrite(
+            final MetadataResponseData data,
+            final short version,
+            final short negotiatedVersion
+    ) {
+        final ResponseHeader header = new ResponseHeader(
+                CORRELATION_ID,
+                ApiKeys.METADATA.responseHeaderVersion(version)
+        );
+        final KafkaMessage message = KafkaMessage.fromPayload(wrappedBuffer(serialize(
+                header.data(),
+                header.headerVersion(),
+                data,
+                version
+        )));
+        final ByteBuf frame = rewriter.rewrite(ApiKeys.METADATA, negotiatedVersion, message, ALLOC).all(ALLOC);
+        assertEquals(frame.readableBytes() - 4, frame.getInt(frame.readerIndex()));
+        final KafkaMessage rewritten = KafkaMessage.fromFrame(frame);
+        try {
+            assertEquals(CORRELATION_ID, rewritten.correlationId());
+            final MetadataResponse response = rewritten.responseBody(ApiKeys.METADATA, version);
+            return response.data();
+        } finally {
+            rewritten.release();
+        }
+    }
+
+    private static MetadataResponseData response(final short version) {
+        final MetadataResponseData data = new MetadataResponseData()
+                .setThrottleTimeMs(version >= 3 ? 17 : 0)
+                .setClusterId(version >= 2 ? "cluster" : null)
+                .setControllerId(version >= 1 ? 2 : -1)
+                .setBrokers(new MetadataResponseBrokerCollection(asList(
+                        broker(1, "broker1", 9092, version >= 1 ? "rack1" : null),
+                        broker(2, "broker2", 9093, null)
+                ).iterator()));
+        data.setTopics(new MetadataResponseTopicCollection(singletonList(new MetadataResponseTopic()
+                .setName("topic")
+                .setPartitions(asList(
+                        new MetadataResponsePartition().setPartitionIndex(0).setLeaderId(1),
+                        new MetadataResponsePartition().setPartitionIndex(1).setLeaderId(2)
+                ))).iterator()));
+        return data;
+    }
+
+    private static MetadataResponseBrokerCollection expectedBrokers(final short version) {
+        return new MetadataResponseBrokerCollection(asList(
+                broker(1, "proxy-of-broker1", 10092, version >= 1 ? "rack1" : null),
+                broker(2, "proxy-of-broker2", 10093, null)
+        ).iterator());
+    }
+
+    private static MetadataResponseBroker broker(final int nodeId, final String host, final int port, final String rack) {
+        return new MetadataResponseBroker()
+                .setNodeId(nodeId)
+                .setHost(host)
+                .setPort(port)
+                .setRack(rack);
+    }
+}
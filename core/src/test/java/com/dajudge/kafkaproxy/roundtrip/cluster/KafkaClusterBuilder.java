@@ -125,7 +125,7 @@ public class KafkaClusterBuilder {
         final StringBuilder buffer = new StringBuilder();
         env.dump(line -> buffer.append(line + "\n"));
         LOG.info("ENV:\n{}", indent(4, buffer.toString()));
-        return KafkaProxyApplication.create(env, System::currentTimeMillis, filesystem);
+        return KafkaProxyApplication.create(env, filesystem);
     }
 
     private void passwordFile(
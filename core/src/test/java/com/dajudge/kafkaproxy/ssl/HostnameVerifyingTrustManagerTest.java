@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.roundtrip.ssl.CertAuthority;
+import com.dajudge.kafkaproxy.roundtrip.ssl.KeyStoreData;
+import org.apache.hc.client5.http.ssl.HttpClientHostnameVerifier;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.ByteArrayInputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+public class HostnameVerifyingTrustManagerTest {
+    private static final String AUTH_TYPE = "RSA";
+    private final CertAuthority ca = new CertAuthority("CN=ca");
+    private final List<String> verifications = new CopyOnWriteArrayList<>();
+    // Accepts the brokers "broker1" and "broker2" regardless of the certificate
+    private final HttpClientHostnameVerifier verifier = new HttpClientHostnameVerifier() {
+        @Override
+        public void verify(final String host, final X509Certificate cert) throws SSLException {
+            verifications.add(host);
+            if (!asList("broker1", "broker2").contains(host)) {
+                throw new SSLException("Mismatch: " + host);
+            }
+        }
+
+        @Override
+        public boolean verify(final String host, final SSLSession session) {
+            throw new UnsupportedOperationException();
+        }
+    };
+    private final HostnameVerifyingTrustManager trustManager = new HostnameVerifyingTrustManager(
+            new TrustingTrustManager(),
+            verifier
+    );
+
+    @Test
+    public void caches_verification_per_certificate_and_hostname() throws Exception {
+        final X509Certificate[] first = chain("CN=first");
+        final X509Certificate[] second = chain("CN=second");
+
+        trustManager.checkServerTrusted(first, AUTH_TYPE, engine("broker1"));
+        trustManager.checkServerTrusted(first, AUTH_TYPE, engine("broker1"));
+        trustManager.checkServerTrusted(first, AUTH_TYPE, engine("broker2"));
+        trustManager.checkServerTrusted(second, AUTH_TYPE, engine("broker1"));
+        trustManager.checkServerTrusted(second, AUTH_TYPE, engine("broker1"));
+
+        assertEquals(asList("broker1", "broker2", "broker1"), verifications);
+        assertEquals(3, trustManager.cachedVerifications());
+    }
+
+    @Test
+    public void rejects_mismatched_hostname() throws Exception {
+        final X509Certificate[] chain = chain("CN=first");
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                trustManager.checkServerTrusted(chain, AUTH_TYPE, engine("broker3"));
+                fail("Mismatched hostname accepted");
+            } catch (final CertificateException e) {
+                assertEquals("Certificate does not match hostname broker3", e.getMessage());
+            }
+        }
+        // The negative result is cached as well
+        assertEquals(singletonList("broker3"), verifications);
+    }
+
+    @Test
+    public void starts_with_empty_cache_on_trust_store_reload() throws Exception {
+        final TrustManager[] trustManagers = {new TrustingTrustManager()};
+        final HostnameVerifyingTrustManager loaded = (HostnameVerifyingTrustManager)
+                DownstreamSslHandlerFactory.wrap(trustManagers)[0];
+        try {
+            loaded.checkServerTrusted(chain("CN=first"), AUTH_TYPE, engine("broker1"));
+        } catch (final CertificateException e) {
+            // The outcome depends on the names in the certificate and is irrelevant here
+        }
+        assertEquals(1, loaded.cachedVerifications());
+
+        final HostnameVerifyingTrustManager reloaded = (HostnameVerifyingTrustManager)
+                DownstreamSslHandlerFactory.wrap(trustManagers)[0];
+
+        assertNotSame(loaded, reloaded);
+        assertEquals(0, reloaded.cachedVerifications());
+    }
+
+    private X509Certificate[] chain(final String dn) throws Exception {
+        final KeyStoreData data = ca.createSignedKeyPair(dn, "jks");
+        final KeyStore keyStore = KeyStore.getInstance(data.getType());
+        keyStore.load(new ByteArrayInputStream(data.getBytes()), data.getKeyStorePassword());
+        return new X509Certificate[]{(X509Certificate) keyStore.getCertificate("key")};
+    }
+
+    private static SSLEngine engine(final String host) throws Exception {
+        return SSLContext.getDefault().createSSLEngine(host, 9093);
+    }
+
+    private static class TrustingTrustManager extends X509ExtendedTrustManager {
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) {
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
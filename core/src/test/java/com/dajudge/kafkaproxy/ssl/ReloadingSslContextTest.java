@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.config.StoreConfig;
+import com.dajudge.kafkaproxy.roundtrip.ssl.CertAuthority;
+import com.dajudge.kafkaproxy.roundtrip.ssl.KeyStoreData;
+import com.dajudge.proxybase.certs.Filesystem;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dajudge.kafkaproxy.roundtrip.util.Await.await;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReloadingSslContextTest {
+    private static final String KEY_STORE = "keystore.jks";
+    private static final String KEY_STORE_PASSWORD = "keystore.password";
+    private static final String KEY_PASSWORD = "key.password";
+    private final CertAuthority ca = new CertAuthority("CN=ca");
+    private final AtomicInteger fileReads = new AtomicInteger();
+    private final Filesystem filesystem = path -> {
+        fileReads.incrementAndGet();
+        return Files.readAllBytes(Paths.get(path));
+    };
+    private ReloadingSslContext context;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void reloads_changed_key_store_without_reading_files_during_handshakes() throws Exception {
+        writeKeyStore(ca.createSignedKeyPair("CN=first", "jks"));
+        final StoreConfig config = new StoreConfig(
+                file(KEY_STORE).toString(),
+                null,
+                file(KEY_STORE_PASSWORD).toString(),
+                null,
+                file(KEY_PASSWORD).toString(),
+                "jks",
+                300
+        );
+        context = new ReloadingSslContext(
+                "test",
+                () -> SslContextBuilder.forServer(SslContexts.keyManagerFactory(config, filesystem)).build(),
+                SslContexts.files(config),
+                filesystem,
+                300
+        );
+        final SslContext initial = context.get();
+        assertEquals("CN=first", handshake());
+
+        writeKeyStore(ca.createSignedKeyPair("CN=second", "jks"));
+        await(() -> context.get() != initial);
+        assertEquals("CN=second", handshake());
+    }
+
+    // Performs a handshake with the current context and returns the subject of the server certificate
+    private String handshake() throws SSLException {
+        final int readsBefore = fileReads.get();
+        final SslContext clientContext = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .build();
+        final EmbeddedChannel server = new EmbeddedChannel(context.get().newHandler(ByteBufAllocator.DEFAULT));
+        final EmbeddedChannel client = new EmbeddedChannel(clientContext.newHandler(ByteBufAllocator.DEFAULT));
+        final SslHandler clientHandler = client.pipeline().get(SslHandler.class);
+        try {
+            while (!clientHandler.handshakeFuture().isDone()) {
+                final boolean clientSent = relay(client, server);
+                final boolean serverSent = relay(server, client);
+                if (!clientSent && !serverSent) {
+                    fail("Handshake stalled");
+                }
+            }
+            assertTrue(clientHandler.handshakeFuture().isSuccess());
+            assertEquals(readsBefore, fileReads.get());
+            final X509Certificate cert = (X509Certificate) clientHandler.engine().getSession()
+                    .getPeerCertificates()[0];
+            return cert.getSubjectX500Principal().getName();
+        } catch (final IOException e) {
+            throw new AssertionError(e);
+        } finally {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+        }
+    }
+
+    private static boolean relay(final EmbeddedChannel from, final EmbeddedChannel to) {
+        boolean relayed = false;
+        for (ByteBuf data = from.readOutbound(); data != null; data = from.readOutbound()) {
+            to.writeInbound(data);
+            relayed = true;
+        }
+        return relayed;
+    }
+
+    private Path file(final String name) {
+        return temp.getRoot().toPath().resolve(name);
+    }
+
+    // Replaces the files the way mounted secrets are updated, so the watcher never sees partial content
+    private void writeKeyStore(final KeyStoreData data) throws IOException {
+        replace(KEY_STORE, data.getBytes());
+        replace(KEY_STORE_PASSWORD, new String(data.getKeyStorePassword()).getBytes(UTF_8));
+        replace(KEY_PASSWORD, new String(data.getKeyPassword()).getBytes(UTF_8));
+    }
+
+    private void replace(final String name, final byte[] content) throws IOException {
+        final Path staged = Files.write(file(name + ".tmp"), content);
+        Files.move(staged, file(name), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019-2021 The kafkaproxy developers (see CONTRIBUTORS)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.dajudge.kafkaproxy.ssl;
+
+import com.dajudge.kafkaproxy.config.SslEngineConfig;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import org.junit.Test;
+
+import javax.net.ssl.SSLEngine;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class SslContextsTest {
+    private static final String CIPHER_SUITE = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+
+    @Test
+    public void applies_configured_protocols_and_cipher_suites() throws Exception {
+        final SslContext context = build(SslProvider.JDK, singletonList("TLSv1.2"), singletonList(CIPHER_SUITE));
+        final SSLEngine engine = context.newEngine(ByteBufAllocator.DEFAULT);
+
+        assertArrayEquals(new String[]{"TLSv1.2"}, engine.getEnabledProtocols());
+        assertArrayEquals(new String[]{CIPHER_SUITE}, engine.getEnabledCipherSuites());
+    }
+
+    @Test
+    public void enables_default_protocols_if_not_configured() throws Exception {
+        final SslContext context = build(SslProvider.JDK, null, null);
+
+        assertArrayEquals(
+                SslContexts.defaultProtocols(),
+                context.newEngine(ByteBufAllocator.DEFAULT).getEnabledProtocols()
+        );
+        assertFalse(context.cipherSuites().isEmpty());
+    }
+
+    @Test
+    public void skips_unsupported_cipher_suites() throws Exception {
+        final SslContext context = build(SslProvider.JDK, null, asList("TLS_UNKNOWN", CIPHER_SUITE));
+
+        assertEquals(singletonList(CIPHER_SUITE), context.cipherSuites());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_if_no_cipher_suite_is_supported() throws Exception {
+        build(SslProvider.JDK, null, singletonList("TLS_UNKNOWN"));
+    }
+
+    @Test
+    public void falls_back_to_jdk_if_openssl_is_not_available() throws Exception {
+        assumeFalse(OpenSsl.isAvailable());
+
+        assertTrue(build(SslProvider.OPENSSL, null, null) instanceof JdkSslContext);
+    }
+
+    @Test
+    public void uses_openssl_if_available() throws Exception {
+        assumeTrue(OpenSsl.isAvailable());
+
+        assertFalse(build(SslProvider.OPENSSL, null, null) instanceof JdkSslContext);
+    }
+
+    private static SslContext build(
+            final SslProvider provider,
+            final List<String> protocols,
+            final List<String> cipherSuites
+    ) throws Exception {
+        final SslEngineConfig config = new SslEngineConfig(
+                provider,
+                Optional.ofNullable(protocols),
+                Optional.ofNullable(cipherSuites),
+                16 * 1024
+        );
+        return SslContexts.build(SslContextBuilder.forClient(), config);
+    }
+}